@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit adapted by latency gradient.
+ *
+ * Latencies are collected in time windows. At the end of each window
+ * average latency of the window (short rtt) is compared with long rtt.
+ * Long rtt is slowly moving average of previous windows, but it can rise 
+ * at most by 0.1% per window, so during long overload it stays anchored to
+ * latency of healthy service and limit is not raised back just because
+ * high latency became usual. If latency grows over tolerance
+ * the limit is reduced by the ratio (at most to half), otherwise it can grow
+ * by square root of the limit. Limit grows only if it was really used in
+ * the window, so idle route doesn't get huge limit. New limit is smoothed
+ * and kept between min and max.
+ *
+ * Acquire is one CAS of in-flight counter, latencies are recorded into
+ * striped counters and limit is recomputed by one thread per window.
+ * @author antons
+ */
+class AdaptiveLimit {
+
+    // number of windows of long rtt average
+    private static final double LONG_WINDOWS = 50;
+    // max relative growth of long rtt per window
+    private static final double LONG_DRIFT = 0.001;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long windowNanos;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final LongAdder rttSum = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final AtomicLong windowEnd;
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile int limit;
+    // written only by updating thread
+    private double estimate;
+    private double longRtt = 0;
+
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, long windowNanos, long now) {
+        if(minLimit < 1) throw new IllegalArgumentException("minLimit must be positive");
+        if(maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must be at least minLimit");
+        if((initialLimit < minLimit) || (initialLimit > maxLimit)) throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+        if(tolerance < 1) throw new IllegalArgumentException("tolerance must be at least 1");
+        if(windowNanos <= 0) throw new IllegalArgumentException("window must be positive");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = windowNanos;
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.windowEnd = new AtomicLong(now + windowNanos);
+    }
+
+    /**
+     * Takes one in-flight slot if limit is not reached.
+     * @return true if request can be processed
+     */
+    boolean acquire() {
+        for(;;) {
+            int current = inflight.get();
+            if(current >= limit) return false;
+            if(inflight.compareAndSet(current, current + 1)) {
+                int used = current + 1;
+                if(used > peak.get()) peak.accumulateAndGet(used, Math::max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases slot taken by acquire and records latency.
+     * @param start nano time when request processing started
+     * @param now current nano time
+     */
+    void release(long start, long now) {
+        inflight.decrementAndGet();
+        rttSum.add(now - start);
+        samples.increment();
+        if(now - windowEnd.get() >= 0) update(now);
+    }
+
+    private void update(long now) {
+        if(!updating.compareAndSet(false, true)) return;
+        try {
+            if(now - windowEnd.get() < 0) return;
+            windowEnd.set(now + windowNanos);
+            long count = samples.sumThenReset();
+            long sum = rttSum.sumThenReset();
+            int used = peak.getAndSet(inflight.get());
+            if(count == 0) return;
+            double shortRtt = Math.max(1, (double)sum / count);
+            if(longRtt == 0) longRtt = shortRtt;
+            else longRtt = longRtt + Math.min((shortRtt - longRtt) / LONG_WINDOWS, longRtt * LONG_DRIFT);
+            // latency dropped a lot (recovery), long average follows faster
+            if(longRtt / shortRtt > 2) longRtt = longRtt * 0.95;
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+            double target = estimate;
+            if(gradient < 1.0) target = estimate * gradient;
+            else if(used * 2 >= estimate) target = estimate + Math.sqrt(estimate);
+            estimate = (estimate * (1 - SMOOTHING)) + (target * SMOOTHING);
+            estimate = Math.max(minLimit, Math.min(maxLimit, estimate));
+            limit = (int)estimate;
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    /**
+     * @return current limit
+     */
+    int limit() { return limit; }
+
+    /**
+     * @return number of requests in processing
+     */
+    int inflight() { return inflight.get(); }
+}
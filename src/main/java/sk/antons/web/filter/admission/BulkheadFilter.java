@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+
+/**
+ * BulkheadFilter gives each route its own fixed number of permits, so
+ * slow dependency behind one route can't take more than given number of
+ * container threads. Requests over limit wait for permit (if waiting is
+ * configured for the route) and they are rejected with 503 when no permit
+ * is available in time. Waiting requests also hold container threads, so
+ * number of waiting requests is limited too and requests over this limit
+ * are rejected immediately.
+ *
+ * Routes are defined by RequestLimiter configuration. Request belongs to
+ * first route which limiter allows it. Requests which belongs to no route
+ * are not limited.
+ * <pre>
+ *   BulkheadFilter filter = BulkheadFilter.instance();
+ *   filter.route("reports", 5)            // at most 5 requests, no waiting
+ *       .path()
+ *           .include("/reports/**");
+ *   filter.route("export", 2, 500, 4)     // at most 2 requests, 4 can wait 500ms for permit
+ *       .path()
+ *           .include("/export/**");
+ *   ...
+ *   for(BulkheadFilter.Stats route : filter.stats().values()) log.info("{}", route);
+ * </pre>
+ * @author antons
+ */
+public class BulkheadFilter implements Filter {
+
+    private final RequestLimiter<BulkheadFilter> limiter = new RequestLimiter<BulkheadFilter>(this);
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+
+    public static BulkheadFilter instance() { return new BulkheadFilter(); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<BulkheadFilter> limit() { return limiter; }
+
+    /**
+     * Adds new route without waiting. Returned limiter defines which
+     * requests belongs to the route. Routes are checked in order of definition.
+     * @param name name of the route
+     * @param maxConcurrent max number of requests processed at once
+     * @return route limiter configuration
+     */
+    public RequestLimiter<BulkheadFilter> route(String name, int maxConcurrent) {
+        return route(name, maxConcurrent, 0);
+    }
+
+    /**
+     * Adds new route. Number of waiting requests is limited by maxConcurrent.
+     * @param name name of the route
+     * @param maxConcurrent max number of requests processed at once
+     * @param waitMillis how long request can wait for permit (0 for no waiting)
+     * @return route limiter configuration
+     */
+    public RequestLimiter<BulkheadFilter> route(String name, int maxConcurrent, long waitMillis) {
+        return route(name, maxConcurrent, waitMillis, maxConcurrent);
+    }
+
+    /**
+     * Adds new route.
+     * @param name name of the route
+     * @param maxConcurrent max number of requests processed at once
+     * @param waitMillis how long request can wait for permit (0 for no waiting)
+     * @param maxWaiting max number of requests waiting for permit
+     * @return route limiter configuration
+     */
+    public RequestLimiter<BulkheadFilter> route(String name, int maxConcurrent, long waitMillis, int maxWaiting) {
+        if(name == null) throw new IllegalArgumentException("Route name can't be null");
+        if(maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be positive");
+        if(waitMillis < 0) throw new IllegalArgumentException("waitMillis can't be negative");
+        if(maxWaiting < 0) throw new IllegalArgumentException("maxWaiting can't be negative");
+        Route route = new Route(name, new RequestLimiter<BulkheadFilter>(this), maxConcurrent, waitMillis, maxWaiting);
+        routes.add(route);
+        return route.limiter;
+    }
+
+    /**
+     * Statistics of all routes.
+     * @return route statistics by route name
+     */
+    public Map<String, Stats> stats() {
+        Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+        for(Route route : routes) {
+            map.put(route.name, new Stats(route.name, route.max
+                , route.max - route.permits.availablePermits(), route.waiting.get()
+                , route.allowed.sum(), route.rejected.sum()));
+        }
+        return map;
+    }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        Route route = null;
+        for(Route r : routes) {
+            if(r.limiter.allow(request)) {
+                route = r;
+                break;
+            }
+        }
+        if(route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if(!route.acquire()) {
+            route.rejected.increment();
+            reject(request, response);
+            return;
+        }
+        route.allowed.increment();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            route.permits.release();
+        }
+    }
+
+    /**
+     * Writes response for rejected request.
+     * @param request rejected request
+     * @param response response
+     * @throws IOException
+     */
+    protected void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Route state taken at the moment of stats() call.
+     */
+    public static class Stats {
+        private final String name;
+        private final int max;
+        private final int occupied;
+        private final int waiting;
+        private final long allowed;
+        private final long rejected;
+
+        private Stats(String name, int max, int occupied, int waiting, long allowed, long rejected) {
+            this.name = name;
+            this.max = max;
+            this.occupied = occupied;
+            this.waiting = waiting;
+            this.allowed = allowed;
+            this.rejected = rejected;
+        }
+
+        public String name() { return name; }
+        /**
+         * @return max number of requests processed at once
+         */
+        public int max() { return max; }
+        /**
+         * @return number of requests in processing
+         */
+        public int occupied() { return occupied; }
+        /**
+         * @return number of requests waiting for permit
+         */
+        public int waiting() { return waiting; }
+        public long allowed() { return allowed; }
+        public long rejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            return name + " occupied: " + occupied + "/" + max + " waiting: " + waiting + " allowed: " + allowed + " rejected: " + rejected;
+        }
+    }
+
+    private static class Route {
+        private final String name;
+        private final RequestLimiter<BulkheadFilter> limiter;
+        private final int max;
+        private final long waitMillis;
+        private final int maxWaiting;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Route(String name, RequestLimiter<BulkheadFilter> limiter, int max, long waitMillis, int maxWaiting) {
+            this.name = name;
+            this.limiter = limiter;
+            this.max = max;
+            this.waitMillis = waitMillis;
+            this.maxWaiting = maxWaiting;
+            this.permits = new Semaphore(max);
+        }
+
+        /**
+         * Takes permit, waits for it if waiting is configured and there is
+         * free place in the wait queue. Interrupted request is rejected
+         * (interrupt flag is kept).
+         */
+        private boolean acquire() {
+            if(permits.tryAcquire()) return true;
+            if((waitMillis == 0) || !enqueue()) return false;
+            try {
+                return permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        private boolean enqueue() {
+            for(;;) {
+                int current = waiting.get();
+                if(current >= maxWaiting) return false;
+                if(waiting.compareAndSet(current, current + 1)) return true;
+            }
+        }
+    }
+}
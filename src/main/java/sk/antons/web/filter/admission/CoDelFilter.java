@@ -0,0 +1,342 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+
+/**
+ * CoDelFilter sheds low priority requests when requests wait too long
+ * before they are processed (controlled delay).
+ *
+ * Queueing delay is computed from request start time set by proxy in
+ * X-Request-Start header (t=1600000000.123, milliseconds or microseconds
+ * since epoch). Other sources (container timestamps) can be used by
+ * overriding queueDelay(). Requests without known delay are not measured.
+ *
+ * Filter tracks minimal delay in each interval. If minimal delay of an
+ * interval is over target, the queue is not going to empty by itself and
+ * the lowest priority class is shed. Each next such interval sheds next
+ * class. Each interval with minimal delay under target returns one class.
+ * The highest priority class is never shed.
+ *
+ * Priority classes are defined by RequestLimiter configuration. Request
+ * belongs to first class which limiter allows it, others belong to
+ * 'other' class with default priority 0.
+ * <pre>
+ *   CoDelFilter filter = CoDelFilter.instance()
+ *       .target(50)
+ *       .interval(500);
+ *   filter.priority("checkout", 10).path().include("/checkout/**");
+ *   filter.priority("reports", -10).path().include("/reports/**");
+ * </pre>
+ * @author antons
+ */
+public class CoDelFilter implements Filter {
+
+    private final RequestLimiter<CoDelFilter> limiter = new RequestLimiter<CoDelFilter>(this);
+    private final List<PriorityClass> classes = new CopyOnWriteArrayList<PriorityClass>();
+    private volatile PriorityClass other = new PriorityClass("other", 0, null);
+    // sorted distinct priorities of all classes
+    private volatile int[] priorities = new int[] {0};
+    private String header = "X-Request-Start";
+    private long targetMillis = 50;
+    private long intervalNanos = 500000000L;
+
+    private final AtomicLong minDelay = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong intervalEnd = new AtomicLong(System.nanoTime() + intervalNanos);
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile int level = 0;
+    private volatile long lastMinDelay = -1;
+
+    public static CoDelFilter instance() { return new CoDelFilter(); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<CoDelFilter> limit() { return limiter; }
+
+    /**
+     * Acceptable queueing delay.
+     * @param millis target delay (default 50)
+     * @return this
+     */
+    public CoDelFilter target(long millis) {
+        if(millis < 0) throw new IllegalArgumentException("target can't be negative");
+        this.targetMillis = millis;
+        return this;
+    }
+
+    /**
+     * Length of interval in which minimal delay is tracked.
+     * @param millis interval length (default 500)
+     * @return this
+     */
+    public CoDelFilter interval(long millis) {
+        if(millis <= 0) throw new IllegalArgumentException("interval must be positive");
+        this.intervalNanos = millis * 1000000L;
+        this.intervalEnd.set(System.nanoTime() + intervalNanos);
+        return this;
+    }
+
+    /**
+     * Header with request start time set by proxy.
+     * @param name header name (default X-Request-Start)
+     * @return this
+     */
+    public CoDelFilter header(String name) {
+        if(name == null) throw new IllegalArgumentException("Header name can't be null");
+        this.header = name;
+        return this;
+    }
+
+    /**
+     * Priority of requests which belongs to no class.
+     * @param priority priority (default 0)
+     * @return this
+     */
+    public CoDelFilter defaultPriority(int priority) {
+        this.other = new PriorityClass(other.name, priority, null);
+        updatePriorities();
+        return this;
+    }
+
+    /**
+     * Adds new priority class. Returned limiter defines which requests
+     * belongs to the class. Classes are checked in order of definition.
+     * @param name name of the class
+     * @param priority priority (lower priority is shed first)
+     * @return class limiter configuration
+     */
+    public RequestLimiter<CoDelFilter> priority(String name, int priority) {
+        if(name == null) throw new IllegalArgumentException("Class name can't be null");
+        PriorityClass pc = new PriorityClass(name, priority, new RequestLimiter<CoDelFilter>(this));
+        classes.add(pc);
+        updatePriorities();
+        return pc.limiter;
+    }
+
+    private synchronized void updatePriorities() {
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        set.add(other.priority);
+        for(PriorityClass pc : classes) set.add(pc.priority);
+        int[] rv = new int[set.size()];
+        int i = 0;
+        for(Integer priority : set) rv[i++] = priority;
+        this.priorities = rv;
+    }
+
+    /**
+     * Number of shed priority levels (0 if nothing is shed).
+     * @return shed level
+     */
+    public int level() { return level; }
+
+    /**
+     * Requests with priority lower than returned value are shed.
+     * @return priority threshold or Integer.MIN_VALUE if nothing is shed
+     */
+    public int shedBelow() {
+        int[] p = priorities;
+        int l = Math.min(level, p.length - 1);
+        return (l == 0) ? Integer.MIN_VALUE : p[l];
+    }
+
+    /**
+     * Minimal queueing delay of last finished interval.
+     * @return delay in millis or -1 if no delay was measured
+     */
+    public long lastMinDelay() { return lastMinDelay; }
+
+    /**
+     * Statistics of all classes.
+     * @return class statistics by class name
+     */
+    public Map<String, Stats> stats() {
+        Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+        List<PriorityClass> list = new ArrayList<PriorityClass>(classes);
+        list.add(other);
+        for(PriorityClass pc : list) {
+            map.put(pc.name, new Stats(pc.name, pc.priority, pc.allowed.sum(), pc.rejected.sum()));
+        }
+        return map;
+    }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        record(queueDelay(request), System.nanoTime());
+        PriorityClass pc = other;
+        for(PriorityClass c : classes) {
+            if(c.limiter.allow(request)) {
+                pc = c;
+                break;
+            }
+        }
+        if(pc.priority < shedBelow()) {
+            pc.rejected.increment();
+            reject(request, response);
+            return;
+        }
+        pc.allowed.increment();
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Time which request waited before it reached this filter.
+     * @param request request
+     * @return delay in millis or -1 if it is not known
+     */
+    protected long queueDelay(HttpServletRequest request) {
+        long start = parseRequestStart(request.getHeader(header));
+        if(start < 0) return -1;
+        return Math.max(0, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Parses request start header value. Value can be prefixed by 't=' and
+     * it can be in seconds (with fraction), milliseconds or microseconds.
+     * @param value header value
+     * @return epoch millis or -1 if value is not valid
+     */
+    static long parseRequestStart(String value) {
+        if(value == null) return -1;
+        String v = value.trim();
+        if(v.startsWith("t=")) v = v.substring(2);
+        if(v.isEmpty()) return -1;
+        try {
+            if(v.indexOf('.') >= 0) return (long)(Double.parseDouble(v) * 1000);
+            long number = Long.parseLong(v);
+            if(number <= 0) return -1;
+            if(v.length() >= 16) return number / 1000;
+            if(v.length() >= 13) return number;
+            return number * 1000;
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Records delay of a request and finishes interval if its time is over.
+     * @param delay queueing delay in millis (-1 if it is not known)
+     * @param now current nano time
+     */
+    void record(long delay, long now) {
+        if((delay >= 0) && (delay < minDelay.get())) minDelay.accumulateAndGet(delay, Math::min);
+        if(now - intervalEnd.get() >= 0) finishInterval(now);
+    }
+
+    private void finishInterval(long now) {
+        if(!updating.compareAndSet(false, true)) return;
+        try {
+            if(now - intervalEnd.get() < 0) return;
+            intervalEnd.set(now + intervalNanos);
+            long min = minDelay.getAndSet(Long.MAX_VALUE);
+            lastMinDelay = (min == Long.MAX_VALUE) ? -1 : min;
+            if((min != Long.MAX_VALUE) && (min > targetMillis)) {
+                level = Math.min(level + 1, priorities.length - 1);
+            } else if(level > 0) {
+                level = level - 1;
+            }
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    /**
+     * Writes response for rejected request.
+     * @param request rejected request
+     * @param response response
+     * @throws IOException
+     */
+    protected void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Class counters taken at the moment of stats() call.
+     */
+    public static class Stats {
+        private final String name;
+        private final int priority;
+        private final long allowed;
+        private final long rejected;
+
+        private Stats(String name, int priority, long allowed, long rejected) {
+            this.name = name;
+            this.priority = priority;
+            this.allowed = allowed;
+            this.rejected = rejected;
+        }
+
+        public String name() { return name; }
+        public int priority() { return priority; }
+        public long allowed() { return allowed; }
+        public long rejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            return name + " priority: " + priority + " allowed: " + allowed + " rejected: " + rejected;
+        }
+    }
+
+    private static class PriorityClass {
+        private final String name;
+        private final int priority;
+        private final RequestLimiter<CoDelFilter> limiter;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private PriorityClass(String name, int priority, RequestLimiter<CoDelFilter> limiter) {
+            this.name = name;
+            this.priority = priority;
+            this.limiter = limiter;
+        }
+    }
+}
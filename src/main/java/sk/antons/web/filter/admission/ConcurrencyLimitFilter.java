@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+
+/**
+ * ConcurrencyLimitFilter limits number of requests processed at once for
+ * each route. Limit is not static, it is adapted by measured latency of
+ * chain processing (see AdaptiveLimit). When downstream slows down the
+ * limit drops and requests over limit are rejected immediately with 503,
+ * so slow route can't occupy all container threads.
+ *
+ * Routes are defined by RequestLimiter configuration. Request belongs to
+ * first route which limiter allows it. Requests which belongs to no route
+ * are not limited.
+ *
+ * Async request holds its slot until async processing completes (or
+ * fails or times out), so latency of async processing is measured too.
+ * Async dispatches of such request are not limited again.
+ * <pre>
+ *   ConcurrencyLimitFilter filter = ConcurrencyLimitFilter.instance()
+ *       .limits(20, 2, 200);
+ *   filter.route("reports")
+ *       .path()
+ *           .include("/reports/**");
+ *   ...
+ *   for(ConcurrencyLimitFilter.Stats route : filter.stats().values()) log.info("{}", route);
+ * </pre>
+ * @author antons
+ */
+public class ConcurrencyLimitFilter implements Filter {
+
+    private final RequestLimiter<ConcurrencyLimitFilter> limiter = new RequestLimiter<ConcurrencyLimitFilter>(this);
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private int initialLimit = 20;
+    private int minLimit = 1;
+    private int maxLimit = 1000;
+    private double tolerance = 1.5;
+    private long windowNanos = 100000000L;
+
+    public static ConcurrencyLimitFilter instance() { return new ConcurrencyLimitFilter(); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<ConcurrencyLimitFilter> limit() { return limiter; }
+
+    /**
+     * Limits of routes. Change is applied to routes added after this call.
+     * @param initial initial limit (default 20)
+     * @param min minimal limit (default 1)
+     * @param max maximal limit (default 1000)
+     * @return this
+     */
+    public ConcurrencyLimitFilter limits(int initial, int min, int max) {
+        if(min < 1) throw new IllegalArgumentException("min must be positive");
+        if(max < min) throw new IllegalArgumentException("max must be at least min");
+        if((initial < min) || (initial > max)) throw new IllegalArgumentException("initial must be between min and max");
+        this.initialLimit = initial;
+        this.minLimit = min;
+        this.maxLimit = max;
+        return this;
+    }
+
+    /**
+     * How much latency can grow before limit is reduced. Change is applied
+     * to routes added after this call.
+     * @param tolerance ratio to long term latency (default 1.5)
+     * @return this
+     */
+    public ConcurrencyLimitFilter tolerance(double tolerance) {
+        if(tolerance < 1) throw new IllegalArgumentException("tolerance must be at least 1");
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Length of window after which limit is recomputed. Change is applied
+     * to routes added after this call.
+     * @param millis window length (default 100)
+     * @return this
+     */
+    public ConcurrencyLimitFilter window(long millis) {
+        if(millis <= 0) throw new IllegalArgumentException("window must be positive");
+        this.windowNanos = millis * 1000000L;
+        return this;
+    }
+
+    /**
+     * Adds new route. Returned limiter defines which requests belongs
+     * to the route. Routes are checked in order of definition.
+     * @param name name of the route
+     * @return route limiter configuration
+     */
+    public RequestLimiter<ConcurrencyLimitFilter> route(String name) {
+        if(name == null) throw new IllegalArgumentException("Route name can't be null");
+        Route route = new Route(name, new RequestLimiter<ConcurrencyLimitFilter>(this)
+            , new AdaptiveLimit(initialLimit, minLimit, maxLimit, tolerance, windowNanos, System.nanoTime()));
+        routes.add(route);
+        return route.limiter;
+    }
+
+    /**
+     * Statistics of all routes.
+     * @return route statistics by route name
+     */
+    public Map<String, Stats> stats() {
+        Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+        for(Route route : routes) {
+            map.put(route.name, new Stats(route.name, route.limit.limit(), route.limit.inflight()
+                , route.allowed.sum(), route.rejected.sum()));
+        }
+        return map;
+    }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if(request.getDispatcherType() == DispatcherType.ASYNC) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Route route = null;
+        for(Route r : routes) {
+            if(r.limiter.allow(request)) {
+                route = r;
+                break;
+            }
+        }
+        if(route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if(!route.limit.acquire()) {
+            route.rejected.increment();
+            reject(request, response);
+            return;
+        }
+        route.allowed.increment();
+        Release release = new Release(route.limit, System.nanoTime());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if(!release.async(request)) release.run();
+        }
+    }
+
+    /**
+     * Writes response for rejected request.
+     * @param request rejected request
+     * @param response response
+     * @throws IOException
+     */
+    protected void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Route state taken at the moment of stats() call.
+     */
+    public static class Stats {
+        private final String name;
+        private final int limit;
+        private final int inflight;
+        private final long allowed;
+        private final long rejected;
+
+        private Stats(String name, int limit, int inflight, long allowed, long rejected) {
+            this.name = name;
+            this.limit = limit;
+            this.inflight = inflight;
+            this.allowed = allowed;
+            this.rejected = rejected;
+        }
+
+        public String name() { return name; }
+        /**
+         * @return current concurrency limit
+         */
+        public int limit() { return limit; }
+        /**
+         * @return number of requests in processing
+         */
+        public int inflight() { return inflight; }
+        public long allowed() { return allowed; }
+        public long rejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            return name + " limit: " + limit + " inflight: " + inflight + " allowed: " + allowed + " rejected: " + rejected;
+        }
+    }
+
+    /**
+     * Releases slot of one request exactly once - at the end of the chain
+     * or at the end of async processing.
+     */
+    private static class Release implements AsyncListener {
+        private final AdaptiveLimit limit;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Release(AdaptiveLimit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+
+        /**
+         * Registers this as listener if request started async processing.
+         * @return true if slot is released by listener
+         */
+        private boolean async(HttpServletRequest request) {
+            try {
+                if(!request.isAsyncStarted()) return false;
+                request.getAsyncContext().addListener(this);
+                return true;
+            } catch(IllegalStateException e) {
+                // async processing is already completed
+                return false;
+            }
+        }
+
+        private void run() {
+            if(released.compareAndSet(false, true)) limit.release(start, System.nanoTime());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) { run(); }
+
+        @Override
+        public void onTimeout(AsyncEvent event) { run(); }
+
+        @Override
+        public void onError(AsyncEvent event) { run(); }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // async processing started again, listener must be added again
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static class Route {
+        private final String name;
+        private final RequestLimiter<ConcurrencyLimitFilter> limiter;
+        private final AdaptiveLimit limit;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Route(String name, RequestLimiter<ConcurrencyLimitFilter> limiter, AdaptiveLimit limit) {
+            this.name = name;
+            this.limiter = limiter;
+            this.limit = limit;
+        }
+    }
+}
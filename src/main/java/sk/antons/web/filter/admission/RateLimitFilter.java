@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+import sk.antons.web.filter.metrics.ClientKey;
+
+/**
+ * RateLimitFilter rejects requests over configured rate with status 429
+ * and Retry-After header.
+ *
+ * Routes are defined by RequestLimiter configuration (path, method, ip,
+ * host rules). Request belongs to first route which limiter allows it.
+ * Each route has its own token buckets keyed by client key (remote
+ * address by default, or principal, header or one key for whole route).
+ * Requests which belongs to no route or which have no client key are
+ * not limited.
+ * <pre>
+ *   RateLimitFilter filter = RateLimitFilter.instance()
+ *       .key(ClientKey.header("X-Api-Key"));
+ *   filter.route("search", 10, 20)            // 10 per second with burst 20 for each client
+ *       .path()
+ *           .include("/search/**");
+ *   filter.route("login", 5, 5, ClientKey.all()) // 5 per second for all clients together
+ *       .path()
+ *           .include("/login", "POST");
+ * </pre>
+ * Buckets are lock free (one CAS per request) and idle clients are
+ * evicted (see TokenBuckets).
+ *
+ * If several JVMs on one machine should share the limits, buckets can be
+ * stored in memory mapped counter file. All processes must use the same
+ * file and the same route names and rates.
+ * <pre>
+ *   RateLimitFilter filter = RateLimitFilter.instance()
+ *       .shared(SharedCounters.open(Paths.get("/dev/shm/rate.counters"), 65536));
+ * </pre>
+ * @author antons
+ */
+public class RateLimitFilter implements Filter {
+
+    /**
+     * Status for rejected requests (Too Many Requests).
+     */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final RequestLimiter<RateLimitFilter> limiter = new RequestLimiter<RateLimitFilter>(this);
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private ClientKey key = ClientKey.remoteAddr();
+    private int maxKeys = 100000;
+    private SharedCounters shared = null;
+
+    public static RateLimitFilter instance() { return new RateLimitFilter(); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<RateLimitFilter> limit() { return limiter; }
+
+    /**
+     * Client identification for routes without own key.
+     * Change is applied to routes added after this call.
+     * @param key client key provider (default remote address)
+     * @return this
+     */
+    public RateLimitFilter key(ClientKey key) {
+        if(key == null) throw new IllegalArgumentException("ClientKey can't be null");
+        this.key = key;
+        return this;
+    }
+
+    /**
+     * Max number of tracked clients per route. Requests of other clients
+     * share one bucket until idle clients are evicted.
+     * Change is applied to routes added after this call.
+     * @param maxKeys max number of clients (default 100000)
+     * @return this
+     */
+    public RateLimitFilter maxKeys(int maxKeys) {
+        if(maxKeys < 1) throw new IllegalArgumentException("maxKeys must be positive");
+        this.maxKeys = maxKeys;
+        return this;
+    }
+
+    /**
+     * Stores buckets in counter file shared by JVMs on this machine.
+     * Slots of full buckets are reused by other keys. Keys which get no
+     * slot (file is full) use buckets of this JVM limited by maxKeys.
+     * Change is applied to routes added after this call.
+     * @param counters counter file (null for buckets in heap)
+     * @return this
+     */
+    public RateLimitFilter shared(SharedCounters counters) {
+        this.shared = counters;
+        return this;
+    }
+
+    /**
+     * Adds new route with rate limit for each client. Returned limiter
+     * defines which requests belongs to the route. Routes are checked in
+     * order of definition.
+     * @param name name of the route
+     * @param perSecond number of allowed requests per second
+     * @param burst number of requests which can be allowed at once
+     * @return route limiter configuration
+     */
+    public RequestLimiter<RateLimitFilter> route(String name, double perSecond, double burst) {
+        return route(name, perSecond, burst, key);
+    }
+
+    /**
+     * Adds new route with rate limit for each key.
+     * @param name name of the route
+     * @param perSecond number of allowed requests per second
+     * @param burst number of requests which can be allowed at once
+     * @param key bucket key provider for this route
+     * @return route limiter configuration
+     */
+    public RequestLimiter<RateLimitFilter> route(String name, double perSecond, double burst, ClientKey key) {
+        if(name == null) throw new IllegalArgumentException("Route name can't be null");
+        if(key == null) throw new IllegalArgumentException("ClientKey can't be null");
+        TokenBuckets buckets = (shared == null)
+            ? new TokenBuckets(perSecond, burst, maxKeys, System.nanoTime())
+            : new SharedTokenBuckets(shared, name, perSecond, burst, maxKeys);
+        Route route = new Route(name, new RequestLimiter<RateLimitFilter>(this), key, buckets);
+        routes.add(route);
+        return route.limiter;
+    }
+
+    /**
+     * Statistics of all routes.
+     * @return route statistics by route name
+     */
+    public Map<String, Stats> stats() {
+        Map<String, Stats> map = new LinkedHashMap<String, Stats>();
+        for(Route route : routes) {
+            map.put(route.name, new Stats(route.name, route.allowed.sum(), route.rejected.sum(), route.buckets.size()));
+        }
+        return map;
+    }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        for(Route route : routes) {
+            if(!route.limiter.allow(request)) continue;
+            String client = route.key.key(request);
+            if(client == null) break;
+            long wait = route.buckets.acquire(client, route.buckets.now());
+            if(wait > 0) {
+                route.rejected.increment();
+                reject(request, response, wait);
+                return;
+            }
+            route.allowed.increment();
+            break;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Writes response for rejected request.
+     * @param request rejected request
+     * @param response response
+     * @param wait nanos until next request of the client can be allowed
+     * @throws IOException
+     */
+    protected void reject(HttpServletRequest request, HttpServletResponse response, long wait) throws IOException {
+        response.setStatus(SC_TOO_MANY_REQUESTS);
+        response.setHeader("Retry-After", String.valueOf(retryAfter(wait)));
+    }
+
+    /**
+     * @param wait nanos
+     * @return whole seconds (at least 1)
+     */
+    static long retryAfter(long wait) {
+        return Math.max(1, (wait + 999999999L) / 1000000000L);
+    }
+
+    /**
+     * Route counters taken at the moment of stats() call.
+     */
+    public static class Stats {
+        private final String name;
+        private final long allowed;
+        private final long rejected;
+        private final int clients;
+
+        private Stats(String name, long allowed, long rejected, int clients) {
+            this.name = name;
+            this.allowed = allowed;
+            this.rejected = rejected;
+            this.clients = clients;
+        }
+
+        public String name() { return name; }
+        public long allowed() { return allowed; }
+        public long rejected() { return rejected; }
+        /**
+         * @return number of currently tracked clients (-1 for shared buckets)
+         */
+        public int clients() { return clients; }
+
+        @Override
+        public String toString() {
+            return name + " allowed: " + allowed + " rejected: " + rejected + " clients: " + clients;
+        }
+    }
+
+    private static class Route {
+        private final String name;
+        private final RequestLimiter<RateLimitFilter> limiter;
+        private final ClientKey key;
+        private final TokenBuckets buckets;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private Route(String name, RequestLimiter<RateLimitFilter> limiter, ClientKey key, TokenBuckets buckets) {
+            this.name = name;
+            this.limiter = limiter;
+            this.key = key;
+            this.buckets = buckets;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Counters shared by all JVMs on the same machine. Counters are stored in
+ * memory mapped file and updated by atomic CAS directly in mapped memory,
+ * so update costs the same as AtomicLong and there is no network service.
+ *
+ * File contains fixed number of slots. Each slot has 64 bit key hash and
+ * 64 bit value. Key gets its slot by CAS of the hash into empty slot (with
+ * short linear probing), so all processes using the same file find the
+ * same slot for the same key. Slots are never emptied, but slot which
+ * value is older than given limit can be taken over by other key (see
+ * slot(String, long)), so keys with expiring values (like token buckets)
+ * don't fill the file forever. If there is no free slot, key gets
+ * overflow slot 0 which is shared by all such keys.
+ * <pre>
+ *   SharedCounters counters = SharedCounters.open(Paths.get("/dev/shm/web-filter.counters"), 65536);
+ *   int slot = counters.slot("orders");
+ *   counters.addAndGet(slot, 1);
+ * </pre>
+ * All processes must open the file with the same number of slots. Mapped
+ * memory is released when instance is garbage collected.
+ * @author antons
+ */
+public final class SharedCounters implements Closeable {
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long MAGIC = 0x5745424354523031L;
+    private static final int HEADER = 64;
+    private static final int SLOT = 16;
+    private static final int MAX_PROBES = 64;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+
+    private SharedCounters(FileChannel channel, MappedByteBuffer buffer, int slots) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slots = slots;
+    }
+
+    /**
+     * Opens (or creates) counter file.
+     * @param file counter file (ideally on memory file system like /dev/shm)
+     * @param slots number of slots (at least 2)
+     * @return counters
+     * @throws IOException if file can't be mapped or it has different number of slots
+     */
+    public static SharedCounters open(Path file, int slots) throws IOException {
+        if(file == null) throw new IllegalArgumentException("File can't be null");
+        if((slots < 2) || (slots > ((Integer.MAX_VALUE - HEADER) / SLOT))) throw new IllegalArgumentException("Wrong number of slots " + slots);
+        long size = HEADER + ((long)slots * SLOT);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = null;
+            FileLock lock = channel.lock();
+            try {
+                long current = channel.size();
+                if((current != 0) && (current != size)) throw new IOException("File " + file + " has different size " + current + " (expected " + size + ")");
+                if(current == 0) channel.truncate(size);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                long magic = (long)LONGS.getVolatile(buffer, 0);
+                if(magic == 0) {
+                    LONGS.setVolatile(buffer, 8, (long)slots);
+                    LONGS.setVolatile(buffer, 0, MAGIC);
+                } else if((magic != MAGIC) || ((long)LONGS.getVolatile(buffer, 8) != slots)) {
+                    throw new IOException("File " + file + " is not counter file with " + slots + " slots");
+                }
+            } finally {
+                lock.release();
+            }
+            return new SharedCounters(channel, buffer, slots);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds or allocates slot for key.
+     * @param key counter key
+     * @return slot index (0 is overflow slot shared by keys without own slot)
+     */
+    public int slot(String key) { return slot(key, Long.MIN_VALUE); }
+
+    /**
+     * Finds or allocates slot for key. If key has no slot and there is no
+     * empty slot, slot of other key which value is lower than before is
+     * taken over (with its value). Process which uses the old key just at
+     * that moment can update the value once more, so values must be such
+     * that this is harmless (like time of full token bucket).
+     * @param key counter key
+     * @param before slots with lower value can be taken over
+     * @return slot index (0 is overflow slot shared by keys without own slot)
+     */
+    public int slot(String key, long before) {
+        long hash = hash(key);
+        int n = slots - 1;
+        int start = (int)((hash >>> 1) % n);
+        int expired = 0;
+        long expiredHash = 0;
+        for(int i = 0; i < MAX_PROBES && i < n; i++) {
+            int slot = 1 + ((start + i) % n);
+            int offset = HEADER + (slot * SLOT);
+            long current = (long)LONGS.getVolatile(buffer, offset);
+            if(current == hash) return slot;
+            if(current == 0) {
+                if(LONGS.compareAndSet(buffer, offset, 0L, hash)) return slot;
+                current = (long)LONGS.getVolatile(buffer, offset);
+                if(current == hash) return slot;
+            }
+            if((expired == 0) && ((long)LONGS.getVolatile(buffer, offset + 8) < before)) {
+                expired = slot;
+                expiredHash = current;
+            }
+        }
+        if((expired != 0) && LONGS.compareAndSet(buffer, HEADER + (expired * SLOT), expiredHash, hash)) return expired;
+        return 0;
+    }
+
+    /**
+     * @param slot slot index
+     * @return current value
+     */
+    public long get(int slot) { return (long)LONGS.getVolatile(buffer, value(slot)); }
+
+    /**
+     * @param slot slot index
+     * @param value new value
+     */
+    public void set(int slot, long value) { LONGS.setVolatile(buffer, value(slot), value); }
+
+    /**
+     * Atomically sets value if current value is expected one.
+     * @param slot slot index
+     * @param expect expected value
+     * @param update new value
+     * @return true if value was set
+     */
+    public boolean compareAndSet(int slot, long expect, long update) {
+        return LONGS.compareAndSet(buffer, value(slot), expect, update);
+    }
+
+    /**
+     * Atomically adds delta.
+     * @param slot slot index
+     * @param delta added value
+     * @return new value
+     */
+    public long addAndGet(int slot, long delta) {
+        return ((long)LONGS.getAndAdd(buffer, value(slot), delta)) + delta;
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int slots() { return slots; }
+
+    private int value(int slot) {
+        if((slot < 0) || (slot >= slots)) throw new IllegalArgumentException("Wrong slot " + slot);
+        return HEADER + (slot * SLOT) + 8;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of key chars with final mix. Never 0 (empty slot).
+     */
+    static long hash(String key) {
+        if(key == null) throw new IllegalArgumentException("Key can't be null");
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (h == 0) ? 1 : h;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
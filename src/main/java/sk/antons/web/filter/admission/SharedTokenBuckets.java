@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.time.Instant;
+
+/**
+ * Token buckets stored in SharedCounters, so all JVMs which use the same
+ * counter file share one budget for each key.
+ *
+ * Bucket state is the same theoretical arrival time as in TokenBuckets,
+ * but it is measured in epoch nanos, as nano time of different processes
+ * can't be compared. Bucket which time is in the past is full (the same as
+ * new bucket), so its slot can be taken over by other key. Request which
+ * uses such slot just at that moment can take one token from new key.
+ *
+ * If counter file has no slot for a key (too many active keys), the key
+ * uses bucket of this JVM only (see TokenBuckets), so its limit is not
+ * shared, but it doesn't share one bucket with other keys and routes.
+ * @author antons
+ */
+class SharedTokenBuckets extends TokenBuckets {
+
+    private final SharedCounters counters;
+    private final String prefix;
+
+    /**
+     * @param counters counter file
+     * @param name name of the buckets (route), it prefixes keys in counter file
+     * @param perSecond number of allowed requests per second
+     * @param burst number of requests which can be allowed at once
+     * @param maxKeys max number of keys in JVM buckets (used if counter file is full)
+     */
+    SharedTokenBuckets(SharedCounters counters, String name, double perSecond, double burst, int maxKeys) {
+        super(perSecond, burst, maxKeys, 0);
+        if(counters == null) throw new IllegalArgumentException("SharedCounters can't be null");
+        if(name == null) throw new IllegalArgumentException("Name can't be null");
+        this.counters = counters;
+        this.prefix = name + '\u0000';
+    }
+
+    /**
+     * @return current epoch nanos
+     */
+    @Override
+    long now() {
+        Instant now = Instant.now();
+        return (now.getEpochSecond() * 1000000000L) + now.getNano();
+    }
+
+    /**
+     * Takes one token from shared bucket of the key.
+     * @param key bucket key
+     * @param now current epoch nanos
+     * @return 0 if token was taken, otherwise nanos until next token is available
+     */
+    @Override
+    long acquire(String key, long now) {
+        int slot = counters.slot(prefix + key, now);
+        if(slot == 0) return super.acquire(key, now);
+        long interval = interval();
+        long tolerance = tolerance();
+        for(;;) {
+            long stored = counters.get(slot);
+            long tat = (stored - now > 0) ? stored : now;
+            long wait = tat - now - tolerance;
+            if(wait > 0) return wait;
+            if(counters.compareAndSet(slot, stored, tat + interval)) return 0;
+        }
+    }
+
+    @Override
+    int size() { return -1; }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.admission;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by string. Each bucket is one AtomicLong with
+ * theoretical arrival time of next request (generic cell rate algorithm),
+ * which is equivalent to token bucket and it is updated by single CAS.
+ *
+ * Bucket which time is in the past is full, so it is the same as new
+ * bucket and it can be evicted. Such buckets are removed by requests
+ * themselves, each request after sweep time checks only small batch of
+ * buckets, so one full pass is spread over many requests and it starts
+ * again one second after previous pass ends. If number of keys reaches
+ * limit, requests of new keys use overflow buckets chosen by key hash, so
+ * random keys can't exhaust memory and they don't share one bucket.
+ * @author antons
+ */
+class TokenBuckets {
+
+    private static final long SWEEP_NANOS = 1000000000L;
+    // number of buckets checked by one request
+    private static final int SWEEP_BATCH = 64;
+    // number of overflow buckets (power of 2)
+    private static final int OVERFLOW = 64;
+
+    private final long interval;
+    private final long tolerance;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong[] overflow = new AtomicLong[OVERFLOW];
+    private final AtomicLong nextSweep;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    // guarded by sweeping
+    private Iterator<AtomicLong> cursor = null;
+
+    /**
+     * @param perSecond number of allowed requests per second
+     * @param burst number of requests which can be allowed at once
+     * @param maxKeys max number of tracked keys
+     * @param now current nano time
+     */
+    TokenBuckets(double perSecond, double burst, int maxKeys, long now) {
+        if(perSecond <= 0) throw new IllegalArgumentException("perSecond must be positive");
+        if(burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        if(maxKeys < 1) throw new IllegalArgumentException("maxKeys must be positive");
+        this.interval = Math.max(1, (long)(1000000000d / perSecond));
+        this.tolerance = (long)((burst - 1) * interval);
+        this.maxKeys = maxKeys;
+        for(int i = 0; i < OVERFLOW; i++) overflow[i] = new AtomicLong(now);
+        this.nextSweep = new AtomicLong(now + SWEEP_NANOS);
+    }
+
+    /**
+     * @return current time used by buckets (nano time)
+     */
+    long now() { return System.nanoTime(); }
+
+    /**
+     * Takes one token from bucket of the key.
+     * @param key bucket key
+     * @param now current nano time
+     * @return 0 if token was taken, otherwise nanos until next token is available
+     */
+    long acquire(String key, long now) {
+        sweep(now);
+        AtomicLong bucket = buckets.get(key);
+        if(bucket == null) {
+            if(buckets.size() >= maxKeys) bucket = overflow(key);
+            else bucket = buckets.computeIfAbsent(key, (k) -> new AtomicLong(now));
+        }
+        return acquire(bucket, now, interval, tolerance);
+    }
+
+    /**
+     * Takes one token from bucket.
+     * @param bucket theoretical arrival time of next request
+     * @param now current nano time
+     * @param interval nanos per token
+     * @param tolerance burst expressed in nanos
+     * @return 0 if token was taken, otherwise nanos until next token is available
+     */
+    static long acquire(AtomicLong bucket, long now, long interval, long tolerance) {
+        for(;;) {
+            long stored = bucket.get();
+            long tat = (stored - now > 0) ? stored : now;
+            long wait = tat - now - tolerance;
+            if(wait > 0) return wait;
+            if(bucket.compareAndSet(stored, tat + interval)) return 0;
+        }
+    }
+
+    private AtomicLong overflow(String key) {
+        int h = key.hashCode();
+        return overflow[(h ^ (h >>> 16)) & (OVERFLOW - 1)];
+    }
+
+    /**
+     * Removes batch of full buckets. Request which took bucket just before 
+     * its removal can lose its token, which only allows one more request.
+     */
+    private void sweep(long now) {
+        if(now - nextSweep.get() < 0) return;
+        if(!sweeping.compareAndSet(false, true)) return;
+        try {
+            if(cursor == null) cursor = buckets.values().iterator();
+            for(int i = 0; i < SWEEP_BATCH; i++) {
+                if(!cursor.hasNext()) {
+                    cursor = null;
+                    nextSweep.set(now + SWEEP_NANOS);
+                    return;
+                }
+                if(now - cursor.next().get() > 0) cursor.remove();
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * @return number of tracked keys (-1 if it is not known)
+     */
+    int size() { return buckets.size(); }
+
+    long interval() { return interval; }
+    long tolerance() { return tolerance; }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import jakarta.servlet.ServletRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled boolean combination of conditions (see Conditions).
+ *
+ * Compilation flattens nested and/or groups of the same kind, removes
+ * double negations and orders operands of each group by estimated cost,
+ * so cheap checks like method run before path matchers, host lookups
+ * or custom conditions. Result is flat list of leaf conditions where each
+ * leaf has index of next leaf for true and false result. Evaluation is
+ * simple loop with short circuit and without recursion.
+ *
+ * Plan can be used as custom limiter or as path rule condition. Plan used
+ * as operand of other plan is inlined (its statistics are not updated).
+ * <pre>
+ *   ConditionPlan plan = ConditionPlan.compile(Conditions.and(...));
+ *   filter.limit().custom(plan);
+ *   ...
+ *   log.info("evaluations: {} time: {}ns", plan.evaluations(), plan.nanos());
+ * </pre>
+ * @author antons
+ */
+public final class ConditionPlan implements RequestCondition, Limiter {
+
+    private static final int TRUE = -1;
+    private static final int FALSE = -2;
+    private static final Comparator<RequestCondition> BY_COST = Comparator.comparingInt(RequestCondition::cost);
+
+    private final RequestCondition root;
+    private final RequestCondition[] leaves;
+    private final int[] ontrue;
+    private final int[] onfalse;
+    private final int cost;
+    private final String description;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    private ConditionPlan(RequestCondition root) {
+        RequestCondition condition = normalize(root);
+        this.root = condition;
+        this.description = condition.toString();
+        this.cost = condition.cost();
+        List<RequestCondition> leaves = new ArrayList<RequestCondition>();
+        List<int[]> targets = new ArrayList<int[]>();
+        emit(condition, TRUE, FALSE, leaves, targets);
+        // leaves are emitted from last to first, reverse them to evaluation order
+        int size = leaves.size();
+        this.leaves = new RequestCondition[size];
+        this.ontrue = new int[size];
+        this.onfalse = new int[size];
+        for(int i = 0; i < size; i++) {
+            int index = size - 1 - i;
+            this.leaves[index] = leaves.get(i);
+            this.ontrue[index] = target(targets.get(i)[0], size);
+            this.onfalse[index] = target(targets.get(i)[1], size);
+        }
+    }
+
+    /**
+     * Compiles condition.
+     * @param condition condition (usually created by Conditions)
+     * @return compiled plan
+     */
+    public static ConditionPlan compile(RequestCondition condition) {
+        if(condition == null) throw new IllegalArgumentException("Condition can't be null");
+        return new ConditionPlan(condition);
+    }
+
+    private static int target(int target, int size) {
+        return (target < 0) ? target : size - 1 - target;
+    }
+
+    /**
+     * Flattens groups, removes double negations and sorts operands by cost.
+     */
+    private static RequestCondition normalize(RequestCondition condition) {
+        if(condition instanceof ConditionPlan) return ((ConditionPlan)condition).root;
+        if(condition instanceof Conditions.Not) {
+            RequestCondition inner = ((Conditions.Not)condition).condition;
+            if(inner instanceof Conditions.Not) return normalize(((Conditions.Not)inner).condition);
+            return Conditions.not(normalize(inner));
+        }
+        if(condition instanceof Conditions.Group) {
+            Conditions.Group group = (Conditions.Group)condition;
+            List<RequestCondition> operands = new ArrayList<RequestCondition>();
+            flatten(group.and, group.conditions, operands);
+            if(operands.size() == 1) return operands.get(0);
+            RequestCondition[] array = operands.toArray(new RequestCondition[operands.size()]);
+            Arrays.sort(array, BY_COST);
+            return group.and ? Conditions.and(array) : Conditions.or(array);
+        }
+        return condition;
+    }
+
+    private static void flatten(boolean and, RequestCondition[] conditions, List<RequestCondition> operands) {
+        for(RequestCondition condition : conditions) {
+            RequestCondition operand = normalize(condition);
+            if((operand instanceof Conditions.Group) && (((Conditions.Group)operand).and == and)) {
+                operands.addAll(Arrays.asList(((Conditions.Group)operand).conditions));
+            } else {
+                operands.add(operand);
+            }
+        }
+    }
+
+    /**
+     * Emits leaves of condition (from last to first), so jump targets of
+     * each leaf are known when it is emitted.
+     * @return index of first leaf of condition
+     */
+    private static int emit(RequestCondition condition, int whentrue, int whenfalse
+            , List<RequestCondition> leaves, List<int[]> targets) {
+        if(condition instanceof Conditions.Not) {
+            return emit(((Conditions.Not)condition).condition, whenfalse, whentrue, leaves, targets);
+        }
+        if(condition instanceof Conditions.Group) {
+            Conditions.Group group = (Conditions.Group)condition;
+            int next = group.and ? whentrue : whenfalse;
+            for(int i = group.conditions.length - 1; i >= 0; i--) {
+                if(group.and) next = emit(group.conditions[i], next, whenfalse, leaves, targets);
+                else next = emit(group.conditions[i], whentrue, next, leaves, targets);
+            }
+            return next;
+        }
+        leaves.add(condition);
+        targets.add(new int[] {whentrue, whenfalse});
+        return leaves.size() - 1;
+    }
+
+    @Override
+    public boolean match(RequestView view) {
+        long start = System.nanoTime();
+        boolean rv = evaluate(view);
+        nanos.add(System.nanoTime() - start);
+        evaluations.increment();
+        return rv;
+    }
+
+    private boolean evaluate(RequestView view) {
+        int pc = 0;
+        while(pc >= 0) pc = leaves[pc].match(view) ? ontrue[pc] : onfalse[pc];
+        return pc == TRUE;
+    }
+
+    @Override
+    public int cost() { return cost; }
+
+    @Override
+    public boolean allow(ServletRequest request) {
+        if(request == null) return false;
+        return match(RequestView.of(request));
+    }
+
+    @Override
+    public boolean allowResponseStatus(ServletRequest request, int status) { return true; }
+
+    /**
+     * @return number of evaluations of this plan
+     */
+    public long evaluations() { return evaluations.sum(); }
+
+    /**
+     * @return total time of all evaluations in nanoseconds
+     */
+    public long nanos() { return nanos.sum(); }
+
+    /**
+     * @return number of leaf conditions in plan
+     */
+    public int size() { return leaves.length; }
+
+    /**
+     * Clears evaluation statistics.
+     * @return this plan
+     */
+    public ConditionPlan resetStats() {
+        evaluations.reset();
+        nanos.reset();
+        return this;
+    }
+
+    /**
+     * @return normalized condition in evaluation order
+     */
+    @Override
+    public String toString() { return description; }
+}
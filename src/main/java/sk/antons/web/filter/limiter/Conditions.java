@@ -0,0 +1,375 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import sk.antons.web.path.PathMatcher;
+
+/**
+ * Factory of request conditions and their boolean combinations.
+ * Combination is only description of condition. Use ConditionPlan.compile()
+ * to get condition which is evaluated efficiently.
+ * <pre>
+ *   ConditionPlan plan = ConditionPlan.compile(
+ *       Conditions.and(
+ *           Conditions.path("/api/**")
+ *           , Conditions.or(Conditions.method("POST"), Conditions.method("PUT"))
+ *           , Conditions.not(Conditions.ip("10.0.0.0/8"))));
+ *   filter.limit().custom(plan);
+ * </pre>
+ * Each condition has estimated cost (see RequestCondition.cost()).
+ * Your own conditions can be given explicit cost by cost(condition, cost).
+ * @author antons
+ */
+public final class Conditions {
+
+    private Conditions() {}
+
+    /**
+     * All conditions must match.
+     * @param conditions conditions
+     * @return condition
+     */
+    public static RequestCondition and(RequestCondition... conditions) { return new Group(true, conditions); }
+
+    /**
+     * At least one condition must match.
+     * @param conditions conditions
+     * @return condition
+     */
+    public static RequestCondition or(RequestCondition... conditions) { return new Group(false, conditions); }
+
+    /**
+     * Negation of condition.
+     * @param condition condition
+     * @return condition
+     */
+    public static RequestCondition not(RequestCondition condition) { return new Not(condition); }
+
+    /**
+     * Request method is one of given methods (case insensitive).
+     * @param methods http methods
+     * @return condition
+     */
+    public static RequestCondition method(String... methods) { return new Method(methods); }
+
+    /**
+     * Request path matches pattern (see PathMatcher).
+     * @param pattern path pattern like /foo/**
+     * @return condition
+     */
+    public static RequestCondition path(String pattern) { return new Path(pattern); }
+
+    /**
+     * Remote ip is one of given addresses or cidr ranges.
+     * @param values ip addresses like 127.0.0.1 or 10.0.0.0/8
+     * @return condition
+     */
+    public static RequestCondition ip(String... values) { return new Ip(values); }
+
+    /**
+     * Remote host matches one of host patterns (see HostTrie). Remote
+     * host can require reverse DNS lookup, so it is expensive condition.
+     * @param patterns host patterns like *.example.com
+     * @return condition
+     */
+    public static RequestCondition host(String... patterns) { return new Host(patterns); }
+
+    /**
+     * Request media type matches one of given types (wildcards like
+     * application/*+json are allowed).
+     * @param types media types
+     * @return condition
+     */
+    public static RequestCondition contentType(String... types) { return new ContentType(types); }
+
+    /**
+     * Request header value is allowed by string configuration. Configuration
+     * can contain prefix, suffix and contains patterns (see StringConf), so
+     * it is useful for user agent like rules with many patterns.
+     * <pre>
+     *   StringConf<Object> agents = new StringConf<Object>(null)
+     *       .include("curl/", StringConf.Mode.PREFIX)
+     *       .include("bot", StringConf.Mode.CONTAINS, true);
+     *   Conditions.header("User-Agent", agents);
+     * </pre>
+     * @param name header name
+     * @param conf allowed values
+     * @return condition
+     */
+    public static RequestCondition header(String name, StringConf<?> conf) { return new Header(name, conf); }
+
+    /**
+     * Request is allowed by limiter.
+     * @param limiter limiter
+     * @return condition
+     */
+    public static RequestCondition limiter(Limiter limiter) { return new FromLimiter(limiter); }
+
+    /**
+     * Condition with explicitly estimated cost.
+     * @param condition condition
+     * @param cost estimated cost
+     * @return condition
+     */
+    public static RequestCondition cost(RequestCondition condition, int cost) { return new Costed(condition, cost); }
+
+    private static RequestCondition check(RequestCondition condition) {
+        if(condition == null) throw new IllegalArgumentException("Condition can't be null");
+        return condition;
+    }
+
+    private static String[] values(String[] values, String what) {
+        if((values == null) || (values.length == 0)) throw new IllegalArgumentException("No " + what + " given");
+        for(String value : values) {
+            if((value == null) || value.trim().isEmpty()) throw new IllegalArgumentException("Empty " + what);
+        }
+        return values;
+    }
+
+    private static String list(String name, String[] values) {
+        return name + "(" + String.join(",", values) + ")";
+    }
+
+    static final class Group implements RequestCondition {
+        final boolean and;
+        final RequestCondition[] conditions;
+
+        private Group(boolean and, RequestCondition[] conditions) {
+            if((conditions == null) || (conditions.length == 0)) throw new IllegalArgumentException("No condition given");
+            for(RequestCondition condition : conditions) check(condition);
+            this.and = and;
+            this.conditions = conditions.clone();
+        }
+
+        @Override
+        public boolean match(RequestView view) {
+            for(RequestCondition condition : conditions) {
+                if(condition.match(view) != and) return !and;
+            }
+            return and;
+        }
+
+        @Override
+        public int cost() {
+            int rv = 0;
+            for(RequestCondition condition : conditions) rv += condition.cost();
+            return rv;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(and ? "and(" : "or(");
+            for(int i = 0; i < conditions.length; i++) {
+                if(i > 0) sb.append(", ");
+                sb.append(conditions[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    static final class Not implements RequestCondition {
+        final RequestCondition condition;
+
+        private Not(RequestCondition condition) { this.condition = check(condition); }
+
+        @Override
+        public boolean match(RequestView view) { return !condition.match(view); }
+
+        @Override
+        public int cost() { return condition.cost(); }
+
+        @Override
+        public String toString() { return "not(" + condition + ")"; }
+    }
+
+    private static final class Method implements RequestCondition {
+        private final String[] methods;
+
+        private Method(String[] methods) { this.methods = values(methods, "method").clone(); }
+
+        @Override
+        public boolean match(RequestView view) {
+            String method = view.method();
+            if(method == null) return false;
+            for(String value : methods) {
+                if(value.equalsIgnoreCase(method)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int cost() { return 1; }
+
+        @Override
+        public String toString() { return list("method", methods); }
+    }
+
+    private static final class Path implements RequestCondition {
+        private final String pattern;
+        private final PathMatcher matcher;
+
+        private Path(String pattern) {
+            if((pattern == null) || pattern.trim().isEmpty()) throw new IllegalArgumentException("Empty path pattern");
+            this.pattern = pattern;
+            this.matcher = PathMatcher.instance(pattern, 64);
+        }
+
+        @Override
+        public boolean match(RequestView view) {
+            String path = view.path();
+            return (path != null) && matcher.match(path);
+        }
+
+        @Override
+        public int cost() { return 20; }
+
+        @Override
+        public String toString() { return "path(" + pattern + ")"; }
+    }
+
+    private static final class Ip implements RequestCondition {
+        private final String[] values;
+        private final IpRanges ranges = new IpRanges();
+
+        private Ip(String[] values) {
+            this.values = values(values, "ip").clone();
+            for(String value : values) {
+                if(!ranges.add(value)) throw new IllegalArgumentException("Wrong ip " + value);
+            }
+            ranges.compact();
+        }
+
+        @Override
+        public boolean match(RequestView view) {
+            IpAddress address = view.address();
+            return (address != null) && ranges.contains(address);
+        }
+
+        @Override
+        public int cost() { return 3; }
+
+        @Override
+        public String toString() { return list("ip", values); }
+    }
+
+    private static final class Host implements RequestCondition {
+        private final String[] patterns;
+        private final HostTrie trie = new HostTrie();
+
+        private Host(String[] patterns) {
+            this.patterns = values(patterns, "host").clone();
+            for(String pattern : patterns) trie.add(pattern);
+        }
+
+        @Override
+        public boolean match(RequestView view) { return trie.contains(view.host()); }
+
+        @Override
+        public int cost() { return 50; }
+
+        @Override
+        public String toString() { return list("host", patterns); }
+    }
+
+    private static final class ContentType implements RequestCondition {
+        private final String[] types;
+        private final MediaType[] mediatypes;
+
+        private ContentType(String[] types) {
+            this.types = values(types, "content type").clone();
+            this.mediatypes = new MediaType[types.length];
+            for(int i = 0; i < types.length; i++) {
+                mediatypes[i] = MediaType.parse(types[i]);
+                if(mediatypes[i] == null) throw new IllegalArgumentException("Wrong content type " + types[i]);
+            }
+        }
+
+        @Override
+        public boolean match(RequestView view) {
+            MediaType mediatype = view.mediaType();
+            if(mediatype == null) return false;
+            for(MediaType value : mediatypes) {
+                if(value.match(mediatype)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int cost() { return 3; }
+
+        @Override
+        public String toString() { return list("contenttype", types); }
+    }
+
+    private static final class Header implements RequestCondition {
+        private final String name;
+        private final StringConf<?> conf;
+
+        private Header(String name, StringConf<?> conf) {
+            if((name == null) || name.trim().isEmpty()) throw new IllegalArgumentException("Header name can't be empty");
+            if(conf == null) throw new IllegalArgumentException("Conf can't be null");
+            this.name = HeaderCondition.normalize(name);
+            this.conf = conf;
+        }
+
+        @Override
+        public boolean match(RequestView view) {
+            String value = view.header(name);
+            return (value != null) && conf.allow(value);
+        }
+
+        @Override
+        public int cost() { return 5; }
+
+        @Override
+        public String toString() { return "header(" + name + ")"; }
+    }
+
+    private static final class FromLimiter implements RequestCondition {
+        private final Limiter limiter;
+
+        private FromLimiter(Limiter limiter) {
+            if(limiter == null) throw new IllegalArgumentException("Limiter can't be null");
+            this.limiter = limiter;
+        }
+
+        @Override
+        public boolean match(RequestView view) { return limiter.allow(view.request()); }
+
+        @Override
+        public String toString() { return "limiter(" + limiter + ")"; }
+    }
+
+    private static final class Costed implements RequestCondition {
+        private final RequestCondition condition;
+        private final int cost;
+
+        private Costed(RequestCondition condition, int cost) {
+            if(cost < 0) throw new IllegalArgumentException("Negative cost " + cost);
+            this.condition = check(condition);
+            this.cost = cost;
+        }
+
+        @Override
+        public boolean match(RequestView view) { return condition.match(view); }
+
+        @Override
+        public int cost() { return cost; }
+
+        @Override
+        public String toString() { return condition.toString(); }
+    }
+}
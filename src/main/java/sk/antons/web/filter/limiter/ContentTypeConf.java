@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Content type configuration. Values are media types compared without
+ * parameters (so application/json matches 'application/json; charset=UTF-8')
+ * and case insensitive. Wildcards are supported.
+ * <pre>
+ *   filter.limit().contentType()
+ *       .include("application/*+json")
+ *       .include("text/*")
+ *       .exclude("text/event-stream");
+ * </pre>
+ * String patterns (see StringConf.Mode) are compared with raw header value.
+ * @author antons
+ */
+public class ContentTypeConf<T> extends StringConf<T> {
+
+    public ContentTypeConf(T parent) { super(parent); }
+
+    /**
+     * Creates immutable compiled form of this configuration.
+     * @return matcher
+     */
+    ContentTypeMatcher compileContentType() { return (ContentTypeMatcher)compiled(); }
+
+    @Override
+    protected Object build() {
+        return ContentTypeMatcher.instance(includes, excludes, includePatterns, excludePatterns);
+    }
+
+    @Override
+    protected boolean allow(String value) {
+        return compileContentType().allow(MediaType.of(value), value);
+    }
+}
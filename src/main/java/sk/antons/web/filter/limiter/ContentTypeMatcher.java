@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable compiled form of ContentTypeConf. Exact media types are 
+ * stored in set, wildcard patterns in list. Values which are not media 
+ * types and string patterns (see StringConf.Mode) are compared with raw 
+ * header value.
+ * @author antons
+ */
+class ContentTypeMatcher {
+
+    private final Patterns includes;
+    private final Patterns excludes;
+
+    private ContentTypeMatcher(Set<String> includes, Set<String> excludes
+            , List<StringConf.Pattern> includePatterns, List<StringConf.Pattern> excludePatterns) {
+        this.includes = new Patterns(includes, includePatterns);
+        this.excludes = new Patterns(excludes, excludePatterns);
+    }
+
+    static ContentTypeMatcher instance(Set<String> includes, Set<String> excludes
+            , List<StringConf.Pattern> includePatterns, List<StringConf.Pattern> excludePatterns) { 
+        return new ContentTypeMatcher(includes, excludes, includePatterns, excludePatterns); 
+    }
+
+    /**
+     * @return true if matcher accepts all values
+     */
+    boolean isEmpty() { return includes.isEmpty() && excludes.isEmpty(); }
+
+    /**
+     * Checks content type against includes and excludes.
+     * @param type parsed media type (null if header is not media type)
+     * @param value raw header value
+     * @return true if content type is allowed
+     */
+    boolean allow(MediaType type, String value) {
+        if(!includes.isEmpty() && !includes.match(type, value)) return false;
+        if(!excludes.isEmpty() && excludes.match(type, value)) return false;
+        return true;
+    }
+
+    /**
+     * Checks content type of request.
+     * @param view request attributes
+     * @return true if content type is allowed
+     */
+    boolean allow(RequestView view) {
+        return allow(view.mediaType(), view.contentType());
+    }
+
+    private static class Patterns {
+        private final Set<String> exact = new HashSet<String>();
+        private final MediaType[] wildcards;
+        private final Set<String> names = new HashSet<String>();
+        private final StringPatterns patterns;
+
+        private Patterns(Set<String> values, List<StringConf.Pattern> patterns) {
+            this.patterns = StringPatterns.instance(patterns);
+            List<MediaType> list = new ArrayList<MediaType>();
+            for(String value : values) {
+                MediaType type = MediaType.parse(value);
+                if(type == null) names.add(value);
+                else if(type.isPattern()) list.add(type);
+                else exact.add(type.essence());
+            }
+            this.wildcards = list.toArray(new MediaType[list.size()]);
+        }
+
+        private boolean isEmpty() { 
+            return exact.isEmpty() && (wildcards.length == 0) && names.isEmpty() && patterns.isEmpty(); 
+        }
+
+        private boolean match(MediaType type, String value) {
+            if(type != null) {
+                if(exact.contains(type.essence())) return true;
+                for(MediaType wildcard : wildcards) {
+                    if(wildcard.match(type)) return true;
+                }
+            }
+            if(!names.isEmpty() && names.contains(value)) return true;
+            return patterns.match(value);
+        }
+    }
+}
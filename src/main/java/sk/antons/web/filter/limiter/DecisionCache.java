@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded concurrent cache of limiter decisions (and other small parsed 
+ * values like media types). Reads are lock free.
+ * Eviction uses CLOCK (second chance) algorithm, which approximates LRU
+ * without reordering entries on each read.
+ * @author antons
+ */
+class DecisionCache<K, V> {
+
+    private final int max;
+    private final ConcurrentHashMap<K, Node<V>> map;
+    private final ConcurrentLinkedQueue<K> clock = new ConcurrentLinkedQueue<K>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    DecisionCache(int max) {
+        this.max = Math.max(1, max);
+        this.map = new ConcurrentHashMap<K, Node<V>>(Math.min(this.max, 1024));
+    }
+
+    V get(K key) {
+        Node<V> node = map.get(key);
+        if(node == null) return null;
+        if(!node.referenced) node.referenced = true;
+        return node.value;
+    }
+
+    void put(K key, V value) {
+        if(map.putIfAbsent(key, new Node<V>(value)) != null) return;
+        clock.offer(key);
+        if(size.incrementAndGet() > max) evict();
+    }
+
+    int size() { return size.get(); }
+
+    private void evict() {
+        for(int i = 0; i < (max << 1); i++) {
+            K key = clock.poll();
+            if(key == null) return;
+            Node<V> node = map.get(key);
+            if(node == null) continue;
+            if(node.referenced) {
+                node.referenced = false;
+                clock.offer(key);
+            } else {
+                map.remove(key);
+                size.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private static class Node<V> {
+        private final V value;
+        private volatile boolean referenced = false;
+
+        private Node(V value) { this.value = value; }
+    }
+}
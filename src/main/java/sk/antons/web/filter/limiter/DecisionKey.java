@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Cache key built only from request attributes which are referenced by 
+ * limiter rules. Not referenced attributes are null. Remote host is never 
+ * part of key as it can cause reverse DNS lookup.
+ * @author antons
+ */
+final class DecisionKey {
+
+    static final int PATH = 1;
+    static final int METHOD = 2;
+    static final int IP = 4;
+    static final int CONTENTTYPE = 16;
+    static final int HEADERS = 32;
+    static final int QUERY = 64;
+    /** Rule uses condition which can't be part of key. */
+    static final int UNCACHEABLE = 128;
+    private static final String[] NO_HEADERS = new String[0];
+
+    private final String path;
+    private final String method;
+    private final String ip;
+    private final String contenttype;
+    private final String[] headers;
+    private final String query;
+    private final int hash;
+
+    DecisionKey(String path, String method, String ip, String contenttype, String[] headers, String query) {
+        this.path = path;
+        this.method = method;
+        this.ip = ip;
+        this.contenttype = contenttype;
+        this.headers = headers;
+        this.query = query;
+        int h = Objects.hashCode(path);
+        h = (31 * h) + Objects.hashCode(method);
+        h = (31 * h) + Objects.hashCode(ip);
+        h = (31 * h) + Objects.hashCode(contenttype);
+        h = (31 * h) + Arrays.hashCode(headers);
+        h = (31 * h) + Objects.hashCode(query);
+        this.hash = h;
+    }
+
+    /**
+     * Creates key from referenced attributes of request.
+     * @param view request attributes
+     * @param attributes mask of referenced attributes
+     * @param headers normalized names of referenced headers
+     * @return key
+     */
+    static DecisionKey of(RequestView view, int attributes, String[] headers) {
+        String[] values = NO_HEADERS;
+        if(((attributes & HEADERS) != 0) && (headers.length > 0)) {
+            values = new String[headers.length];
+            for(int i = 0; i < headers.length; i++) values[i] = view.header(headers[i]);
+        }
+        return new DecisionKey(
+            ((attributes & PATH) != 0) ? view.path() : null
+            , ((attributes & METHOD) != 0) ? view.method() : null
+            , ((attributes & IP) != 0) ? view.ip() : null
+            , ((attributes & CONTENTTYPE) != 0) ? view.contentType() : null
+            , values
+            , ((attributes & QUERY) != 0) ? view.queryString() : null);
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof DecisionKey)) return false;
+        DecisionKey other = (DecisionKey)o;
+        return (hash == other.hash)
+            && Objects.equals(path, other.path)
+            && Objects.equals(method, other.method)
+            && Objects.equals(ip, other.ip)
+            && Objects.equals(contenttype, other.contenttype)
+            && Arrays.equals(headers, other.headers)
+            && Objects.equals(query, other.query);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Locale;
+
+/**
+ * Request header condition for path rules. Header name is normalized
+ * (lower case and interned) when condition is created, so request view
+ * reads each referenced header only once per request.
+ * <pre>
+ *   filter.limit().path()
+ *       .include("/foo/**", null, HeaderCondition.present("X-Debug"))
+ *       .exclude("/foo/**", null, HeaderCondition.prefix("User-Agent", "kube-probe/"));
+ * </pre>
+ * @author antons
+ */
+public final class HeaderCondition implements RequestCondition {
+
+    private static final int EQUALS = 1;
+    private static final int PREFIX = 2;
+    private static final int PRESENT = 3;
+    private static final int ABSENT = 4;
+
+    private final String name;
+    private final int kind;
+    private final String value;
+
+    private HeaderCondition(String name, int kind, String value) {
+        if((name == null) || name.trim().isEmpty()) throw new IllegalArgumentException("Header name can't be empty");
+        if((value == null) && ((kind == EQUALS) || (kind == PREFIX))) throw new IllegalArgumentException("Header value can't be null");
+        this.name = normalize(name);
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * Header has given value.
+     * @param name header name
+     * @param value header value
+     * @return condition
+     */
+    public static HeaderCondition equals(String name, String value) { return new HeaderCondition(name, EQUALS, value); }
+
+    /**
+     * Header value starts with given prefix.
+     * @param name header name
+     * @param prefix value prefix
+     * @return condition
+     */
+    public static HeaderCondition prefix(String name, String prefix) { return new HeaderCondition(name, PREFIX, prefix); }
+
+    /**
+     * Header is present.
+     * @param name header name
+     * @return condition
+     */
+    public static HeaderCondition present(String name) { return new HeaderCondition(name, PRESENT, null); }
+
+    /**
+     * Header is not present.
+     * @param name header name
+     * @return condition
+     */
+    public static HeaderCondition absent(String name) { return new HeaderCondition(name, ABSENT, null); }
+
+    /**
+     * Parses condition from rules file form (value, prefix*, * for present
+     * and ! for absent).
+     * @param name header name
+     * @param spec condition value
+     * @return condition
+     */
+    static HeaderCondition parse(String name, String spec) {
+        if("*".equals(spec)) return present(name);
+        if("!".equals(spec)) return absent(name);
+        if(spec.endsWith("*")) return prefix(name, spec.substring(0, spec.length() - 1));
+        return equals(name, spec);
+    }
+
+    /**
+     * Normalized header name. Same names are the same instances.
+     * @param name header name
+     * @return lower case interned name
+     */
+    static String normalize(String name) { return name.trim().toLowerCase(Locale.ROOT).intern(); }
+
+    /**
+     * @return normalized header name
+     */
+    public String name() { return name; }
+
+    /**
+     * Checks condition against request.
+     * @param view request attributes
+     * @return true if condition matches
+     */
+    @Override
+    public boolean match(RequestView view) {
+        String header = view.header(name);
+        switch(kind) {
+            case EQUALS: return value.equals(header);
+            case PREFIX: return (header != null) && header.startsWith(value);
+            case PRESENT: return header != null;
+            default: return header == null;
+        }
+    }
+
+    @Override
+    public int cost() { return 2; }
+
+    @Override
+    public String toString() {
+        switch(kind) {
+            case EQUALS: return "header." + name + "=" + value;
+            case PREFIX: return "header." + name + "=" + value + "*";
+            case PRESENT: return "header." + name + "=*";
+            default: return "header." + name + "=!";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Host name configuration. Values can be exact host names or wildcard
+ * patterns. Host names are compared case insensitive.
+ * <pre>
+ *   filter.limit().host()
+ *       .include("*.internal.example.com")  // any subdomain
+ *       .include(".example.org")            // example.org and any subdomain
+ *       .exclude("api.*.example.com");      // * as one label
+ * </pre>
+ * @author antons
+ */
+public class HostConf<T> extends StringConf<T> {
+
+    public HostConf(T parent) { super(parent); }
+
+    /**
+     * Creates immutable compiled form of this configuration.
+     * @return matcher
+     */
+    HostMatcher compileHost() { return (HostMatcher)compiled(); }
+
+    @Override
+    protected Object build() {
+        return HostMatcher.instance(includes, excludes);
+    }
+
+    /**
+     * Host names are always case insensitive and only exact mode is 
+     * supported (use host patterns like *.example.com).
+     */
+    @Override
+    public StringConf include(String value, Mode mode, boolean ignoreCase) { 
+        if(mode != Mode.EXACT) throw new IllegalArgumentException("Host conf supports only host patterns, not " + mode);
+        return include(value);
+    }
+
+    /**
+     * Host names are always case insensitive and only exact mode is 
+     * supported (use host patterns like *.example.com).
+     */
+    @Override
+    public StringConf exclude(String value, Mode mode, boolean ignoreCase) { 
+        if(mode != Mode.EXACT) throw new IllegalArgumentException("Host conf supports only host patterns, not " + mode);
+        return exclude(value);
+    }
+
+    @Override
+    protected boolean allow(String value) {
+        return compileHost().allow(value);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Set;
+
+/**
+ * Immutable compiled form of HostConf.
+ * @author antons
+ */
+class HostMatcher {
+
+    private final HostTrie includes = new HostTrie();
+    private final HostTrie excludes = new HostTrie();
+
+    private HostMatcher(Set<String> includes, Set<String> excludes) {
+        for(String value : includes) this.includes.add(value);
+        for(String value : excludes) this.excludes.add(value);
+    }
+
+    static HostMatcher instance(Set<String> includes, Set<String> excludes) { return new HostMatcher(includes, excludes); }
+
+    /**
+     * @return true if matcher accepts all values
+     */
+    boolean isEmpty() { return includes.isEmpty() && excludes.isEmpty(); }
+
+    /**
+     * Checks host against includes and excludes.
+     * @param host host name
+     * @return true if host is allowed
+     */
+    boolean allow(String host) {
+        if(!includes.isEmpty() && !includes.contains(host)) return false;
+        if(!excludes.isEmpty() && excludes.contains(host)) return false;
+        return true;
+    }
+}
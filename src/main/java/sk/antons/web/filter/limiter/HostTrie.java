@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Locale;
+
+/**
+ * Set of host name patterns stored in trie keyed by reversed DNS labels
+ * (com -&gt; example -&gt; api). Supported patterns
+ * <ul>
+ *   <li>api.example.com - exact host</li>
+ *   <li>*.example.com - any subdomain of example.com (not example.com itself)</li>
+ *   <li>.example.com - example.com and any its subdomain</li>
+ *   <li>api.*.example.com - * in other position means exactly one label</li>
+ *   <li>* - any host</li>
+ * </ul>
+ * Labels are compared case insensitive directly in checked host name, so
+ * lookup does not allocate.
+ *
+ * Patterns are added only while limiter configuration is compiled. After
+ * that instance is only read.
+ * @author antons
+ */
+final class HostTrie {
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Adds host pattern.
+     * @param pattern host pattern
+     * @return false if pattern is empty
+     */
+    boolean add(String pattern) {
+        if(pattern == null) return false;
+        String value = pattern.trim().toLowerCase(Locale.ROOT);
+        if(value.endsWith(".")) value = value.substring(0, value.length() - 1);
+        if(value.isEmpty()) return false;
+        int mode = Node.EXACT;
+        if(value.equals("*")) {
+            root.flags |= Node.SUBDOMAINS;
+            size++;
+            return true;
+        } else if(value.startsWith("*.")) {
+            mode = Node.SUBDOMAINS;
+            value = value.substring(2);
+        } else if(value.startsWith(".")) {
+            mode = Node.SUFFIX;
+            value = value.substring(1);
+        }
+        if(value.isEmpty()) return false;
+        Node node = root;
+        int end = value.length();
+        while(end > 0) {
+            int dot = value.lastIndexOf('.', end - 1);
+            String label = value.substring(dot + 1, end);
+            node = "*".equals(label) ? node.any() : node.child(label);
+            end = dot;
+        }
+        node.flags |= mode;
+        size++;
+        return true;
+    }
+
+    boolean isEmpty() { return size == 0; }
+
+    /**
+     * Checks if host matches some pattern.
+     * @param host host name
+     * @return true if some pattern matches host
+     */
+    boolean contains(String host) {
+        if((host == null) || host.isEmpty()) return false;
+        int end = host.length();
+        if(host.charAt(end - 1) == '.') end--;
+        return match(root, host, end);
+    }
+
+    /**
+     * @param end end of not yet matched host prefix (&lt;= 0 if whole host is matched)
+     */
+    private static boolean match(Node node, String host, int end) {
+        if(end <= 0) return (node.flags & (Node.EXACT | Node.SUFFIX)) != 0;
+        if((node.flags & (Node.SUBDOMAINS | Node.SUFFIX)) != 0) return true;
+        int dot = host.lastIndexOf('.', end - 1);
+        Node child = node.get(host, dot + 1, end);
+        if((child != null) && match(child, host, dot)) return true;
+        if((node.any != null) && match(node.any, host, dot)) return true;
+        return false;
+    }
+
+    /**
+     * Hash of lower case form of string region. Same for stored labels
+     * and regions of checked host.
+     */
+    private static int hash(String value, int start, int end) {
+        int h = 0;
+        for(int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if((c >= 'A') && (c <= 'Z')) c = (char)(c + 32);
+            else if(c > 127) c = Character.toLowerCase(c);
+            h = (31 * h) + c;
+        }
+        h ^= (h >>> 16);
+        return h;
+    }
+
+    private static class Node {
+        private static final int EXACT = 1;
+        private static final int SUBDOMAINS = 2;
+        private static final int SUFFIX = 4;
+
+        private int flags = 0;
+        private Node any = null;
+        // open addressing table of children keyed by lower case label
+        private String[] keys = null;
+        private Node[] children = null;
+        private int count = 0;
+
+        private Node any() {
+            if(any == null) any = new Node();
+            return any;
+        }
+
+        private Node get(String host, int start, int end) {
+            if(keys == null) return null;
+            int len = end - start;
+            int mask = keys.length - 1;
+            int i = hash(host, start, end) & mask;
+            for(;;) {
+                String key = keys[i];
+                if(key == null) return null;
+                if((key.length() == len) && key.regionMatches(true, 0, host, start, len)) return children[i];
+                i = (i + 1) & mask;
+            }
+        }
+
+        private Node child(String label) {
+            Node node = get(label, 0, label.length());
+            if(node != null) return node;
+            if((keys == null) || ((count + 1) * 2 > keys.length)) resize();
+            node = new Node();
+            put(label, node);
+            return node;
+        }
+
+        private void put(String label, Node node) {
+            int mask = keys.length - 1;
+            int i = hash(label, 0, label.length()) & mask;
+            while(keys[i] != null) i = (i + 1) & mask;
+            keys[i] = label;
+            children[i] = node;
+            count++;
+        }
+
+        private void resize() {
+            String[] oldkeys = keys;
+            Node[] oldchildren = children;
+            int capacity = (keys == null) ? 2 : keys.length * 2;
+            keys = new String[capacity];
+            children = new Node[capacity];
+            count = 0;
+            if(oldkeys == null) return;
+            for(int i = 0; i < oldkeys.length; i++) {
+                if(oldkeys[i] != null) put(oldkeys[i], oldchildren[i]);
+            }
+        }
+    }
+}
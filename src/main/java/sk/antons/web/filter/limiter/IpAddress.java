@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Parsed ip address as 128 bit number (hi and lo part). IPv4 addresses
+ * are stored as IPv4 mapped IPv6 addresses (::ffff:a.b.c.d), so both
+ * versions can be stored in one trie. Parsing does not allocate, instance
+ * can be reused.
+ * @author antons
+ */
+final class IpAddress {
+
+    private static final long V4_MAPPED = 0x0000ffff00000000L;
+
+    long hi;
+    long lo;
+    boolean v4;
+
+    /**
+     * Parses address. Brackets and zone id (fe80::1%eth0) are ignored.
+     * @param value textual address
+     * @return true if value is valid address
+     */
+    boolean parse(String value) {
+        if(value == null) return false;
+        return parse(value, 0, value.length());
+    }
+
+    /**
+     * Parses address or cidr range (10.0.0.0/8, 2001:db8::/32).
+     * Address without prefix length is range with one address.
+     * @param value textual range
+     * @return prefix length in 128 bit address space or -1 if value is not range
+     */
+    int parseRange(String value) {
+        if(value == null) return -1;
+        value = value.trim();
+        int pos = value.indexOf('/');
+        int end = (pos < 0) ? value.length() : pos;
+        if(!parse(value, 0, end)) return -1;
+        int max = v4 ? 32 : 128;
+        int len = max;
+        if(pos >= 0) {
+            len = 0;
+            if(pos + 1 == value.length()) return -1;
+            for(int i = pos + 1; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if((c < '0') || (c > '9')) return -1;
+                len = (len * 10) + (c - '0');
+                if(len > max) return -1;
+            }
+        }
+        return v4 ? len + 96 : len;
+    }
+
+    /**
+     * Bit of address on position index (0 is most significant bit).
+     */
+    int bit(int index) {
+        if(index < 64) return (int)((hi >>> (63 - index)) & 1);
+        return (int)((lo >>> (127 - index)) & 1);
+    }
+
+    private boolean parse(String value, int start, int end) {
+        if((end - start > 1) && (value.charAt(start) == '[') && (value.charAt(end - 1) == ']')) {
+            start++;
+            end--;
+        }
+        boolean v6 = false;
+        for(int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if(c == '%') {
+                end = i;
+                break;
+            }
+            if(c == ':') v6 = true;
+        }
+        if(v6) return parse6(value, start, end);
+        long v = parse4(value, start, end);
+        if(v < 0) return false;
+        hi = 0;
+        lo = V4_MAPPED | v;
+        v4 = true;
+        return true;
+    }
+
+    private static long parse4(String value, int start, int end) {
+        long rv = 0;
+        int parts = 0;
+        int i = start;
+        while(parts < 4) {
+            int octet = 0;
+            int digits = 0;
+            while((i < end) && (digits < 4)) {
+                char c = value.charAt(i);
+                if((c < '0') || (c > '9')) break;
+                octet = (octet * 10) + (c - '0');
+                digits++;
+                i++;
+            }
+            if((digits == 0) || (digits > 3) || (octet > 255)) return -1;
+            rv = (rv << 8) | octet;
+            parts++;
+            if(parts < 4) {
+                if((i >= end) || (value.charAt(i) != '.')) return -1;
+                i++;
+            }
+        }
+        if(i != end) return -1;
+        return rv;
+    }
+
+    private boolean parse6(String value, int start, int end) {
+        // groups before '::' are shifted in head, groups after it in tail
+        long headhi = 0, headlo = 0, tailhi = 0, taillo = 0;
+        int head = 0, tail = 0;
+        boolean gap = false;
+        int i = start;
+        if(value.startsWith("::", i)) {
+            gap = true;
+            i = i + 2;
+        }
+        while(i < end) {
+            int from = i;
+            int group = 0;
+            while(i < end) {
+                int d = Character.digit(value.charAt(i), 16);
+                if(d < 0) break;
+                group = (group << 4) | d;
+                i++;
+                if(i - from > 4) return false;
+            }
+            if((i < end) && (value.charAt(i) == '.')) {
+                long v = parse4(value, from, end);
+                if(v < 0) return false;
+                if(gap) {
+                    tailhi = (tailhi << 32) | (taillo >>> 32);
+                    taillo = (taillo << 32) | v;
+                    tail = tail + 2;
+                } else {
+                    headhi = (headhi << 32) | (headlo >>> 32);
+                    headlo = (headlo << 32) | v;
+                    head = head + 2;
+                }
+                i = end;
+                break;
+            }
+            if(i == from) return false;
+            if(gap) {
+                tailhi = (tailhi << 16) | (taillo >>> 48);
+                taillo = (taillo << 16) | group;
+                tail++;
+            } else {
+                headhi = (headhi << 16) | (headlo >>> 48);
+                headlo = (headlo << 16) | group;
+                head++;
+            }
+            if(head + tail > 8) return false;
+            if(i == end) break;
+            if(value.charAt(i) != ':') return false;
+            i++;
+            if((i < end) && (value.charAt(i) == ':')) {
+                if(gap) return false;
+                gap = true;
+                i++;
+            } else if(i == end) {
+                return false;
+            }
+        }
+        if(gap ? (head + tail > 7) : (head != 8)) return false;
+        int shift = (8 - head) * 16;
+        if(shift >= 128) {
+            headhi = 0;
+            headlo = 0;
+        } else if(shift >= 64) {
+            headhi = headlo << (shift - 64);
+            headlo = 0;
+        } else if(shift > 0) {
+            headhi = (headhi << shift) | (headlo >>> (64 - shift));
+            headlo = headlo << shift;
+        }
+        hi = headhi | tailhi;
+        lo = headlo | taillo;
+        v4 = false;
+        return true;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Large set of ip addresses and cidr ranges stored in sorted primitive
+ * arrays. Single IPv4 addresses take 4 bytes, IPv4 ranges 8 bytes and
+ * IPv6 ranges 32 bytes. Lookup is binary search. Optional Bloom filter
+ * (about 1% false positives) answers most negative lookups of single
+ * IPv4 addresses (usually the biggest part of blocklists) without
+ * touching the sorted array.
+ *
+ * List is loaded into new arrays and then replaced atomically, so it can
+ * be reloaded while requests are checked. Blocklist is checked before
+ * limiter decision cache, so reload does not need cache reset.
+ * <pre>
+ *   IpBlocklist blocked = IpBlocklist.instance()
+ *       .bloom(true)
+ *       .load(Paths.get("/etc/app/blocked-ips.txt"));
+ *   filter.limit().ip().exclude(blocked);
+ *   ...
+ *   blocked.load(Paths.get("/etc/app/blocked-ips.txt")); // reload
+ * </pre>
+ * File contains one address or range per line. Empty lines and lines
+ * starting with # are ignored.
+ * @author antons
+ */
+public class IpBlocklist {
+
+    private static final long SIGN = 0x80000000L;
+
+    private boolean bloom = false;
+    private volatile Data data = new Data(new int[0], new long[0], new long[0], false);
+
+    public static IpBlocklist instance() { return new IpBlocklist(); }
+
+    /**
+     * Enables Bloom filter for lists loaded after this call.
+     * @param value true for Bloom filter usage
+     * @return this list
+     */
+    public IpBlocklist bloom(boolean value) { this.bloom = value; return this; }
+
+    /**
+     * Replaces content of the list by content of file.
+     * @param file file with one address or range per line
+     * @return this list
+     * @throws IOException if file can't be read
+     * @throws IllegalArgumentException if some line is not valid address or range
+     */
+    public IpBlocklist load(Path file) throws IOException {
+        Builder builder = new Builder();
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = null;
+            int number = 0;
+            while((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+                if(!builder.add(line)) throw new IllegalArgumentException("Wrong ip range '" + line + "' on line " + number + " of " + file);
+            }
+        }
+        this.data = builder.build(bloom);
+        return this;
+    }
+
+    /**
+     * Replaces content of the list.
+     * @param values addresses or ranges
+     * @return this list
+     * @throws IllegalArgumentException if some value is not valid address or range
+     */
+    public IpBlocklist update(Iterable<String> values) {
+        Builder builder = new Builder();
+        for(String value : values) {
+            if(!builder.add(value)) throw new IllegalArgumentException("Wrong ip range '" + value + "'");
+        }
+        this.data = builder.build(bloom);
+        return this;
+    }
+
+    /**
+     * @return number of stored addresses and (merged) ranges
+     */
+    public int size() { return data.size(); }
+
+    /**
+     * Checks if address is in the list.
+     * @param ip textual ip address
+     * @return true if address is in the list
+     */
+    public boolean contains(String ip) {
+        IpAddress address = new IpAddress();
+        return address.parse(ip) && contains(address);
+    }
+
+    boolean contains(IpAddress address) {
+        if(address == null) return false;
+        return data.contains(address);
+    }
+
+    private static boolean isV4(IpAddress address) {
+        return (address.hi == 0) && ((address.lo >>> 32) == 0xffffL);
+    }
+
+    /**
+     * Immutable content of the list.
+     */
+    private static class Data {
+        // ipv4 addresses with flipped sign bit, so signed order is unsigned order
+        private final int[] singles;
+        // ipv4 ranges as (start with flipped sign bit) << 32 | end
+        private final long[] ranges4;
+        // ipv6 ranges as starthi, startlo, endhi, endlo
+        private final long[] ranges6;
+        private final long[] bloom;
+        private final int mask;
+
+        private Data(int[] singles, long[] ranges4, long[] ranges6, boolean bloom) {
+            this.singles = singles;
+            this.ranges4 = ranges4;
+            this.ranges6 = ranges6;
+            if(bloom && (singles.length > 0)) {
+                // about 10 bits per address
+                int bits = Integer.highestOneBit(Math.max(64, Math.min(1 << 30, singles.length * 10)));
+                if(bits < singles.length * 10) bits = Math.min(1 << 30, bits << 1);
+                this.bloom = new long[bits >>> 6];
+                this.mask = bits - 1;
+                for(int single : singles) {
+                    long h = hash(single);
+                    int h1 = (int)h;
+                    int h2 = (int)(h >>> 32);
+                    for(int i = 0; i < 4; i++) {
+                        int bit = (h1 + (i * h2)) & mask;
+                        this.bloom[bit >>> 6] |= (1L << bit);
+                    }
+                }
+            } else {
+                this.bloom = null;
+                this.mask = 0;
+            }
+        }
+
+        private int size() { return singles.length + ranges4.length + (ranges6.length / 4); }
+
+        private boolean contains(IpAddress address) {
+            if(isV4(address)) {
+                long ip = address.lo & 0xffffffffL;
+                return containsSingle((int)(ip ^ SIGN)) || containsRange4(ip);
+            }
+            return containsRange6(address.hi, address.lo);
+        }
+
+        private boolean containsSingle(int value) {
+            if(singles.length == 0) return false;
+            if(bloom != null) {
+                long h = hash(value);
+                int h1 = (int)h;
+                int h2 = (int)(h >>> 32);
+                for(int i = 0; i < 4; i++) {
+                    int bit = (h1 + (i * h2)) & mask;
+                    if((bloom[bit >>> 6] & (1L << bit)) == 0) return false;
+                }
+            }
+            return Arrays.binarySearch(singles, value) >= 0;
+        }
+
+        private boolean containsRange4(long ip) {
+            if(ranges4.length == 0) return false;
+            int pos = Arrays.binarySearch(ranges4, ((ip ^ SIGN) << 32) | 0xffffffffL);
+            if(pos < 0) pos = -pos - 2;
+            if(pos < 0) return false;
+            return (ranges4[pos] & 0xffffffffL) >= ip;
+        }
+
+        private boolean containsRange6(long hi, long lo) {
+            // last range with start <= address
+            int low = 0;
+            int high = (ranges6.length / 4) - 1;
+            int found = -1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                if(compare(ranges6[mid * 4], ranges6[(mid * 4) + 1], hi, lo) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if(found < 0) return false;
+            return compare(hi, lo, ranges6[(found * 4) + 2], ranges6[(found * 4) + 3]) <= 0;
+        }
+
+        private static long hash(int value) {
+            long h = value * 0x9e3779b97f4a7c15L;
+            h ^= (h >>> 33);
+            h *= 0xff51afd7ed558ccdL;
+            h ^= (h >>> 33);
+            return h;
+        }
+    }
+
+    private static int compare(long hi1, long lo1, long hi2, long lo2) {
+        int rv = Long.compareUnsigned(hi1, hi2);
+        if(rv != 0) return rv;
+        return Long.compareUnsigned(lo1, lo2);
+    }
+
+    /**
+     * Collects values into growable primitive arrays and builds sorted
+     * and merged Data.
+     */
+    private static class Builder {
+        private final IpAddress address = new IpAddress();
+        private int[] singles = new int[1024];
+        private int singleCount = 0;
+        private long[] ranges4 = new long[64];
+        private int range4Count = 0;
+        private List<long[]> ranges6 = new ArrayList<long[]>();
+
+        private boolean add(String value) {
+            int length = address.parseRange(value);
+            if(length < 0) return false;
+            if(isV4(address) && (length >= 96)) {
+                long ip = address.lo & 0xffffffffL;
+                if(length == 128) {
+                    if(singleCount == singles.length) singles = Arrays.copyOf(singles, singleCount << 1);
+                    singles[singleCount++] = (int)(ip ^ SIGN);
+                } else {
+                    long hostmask = (1L << (128 - length)) - 1;
+                    long start = ip & ~hostmask;
+                    if(range4Count == ranges4.length) ranges4 = Arrays.copyOf(ranges4, range4Count << 1);
+                    ranges4[range4Count++] = ((start ^ SIGN) << 32) | (start | hostmask);
+                }
+            } else {
+                long maskhi = (length >= 64) ? -1L : ((length == 0) ? 0 : (-1L << (64 - length)));
+                long masklo = (length <= 64) ? 0 : ((length == 128) ? -1L : (-1L << (128 - length)));
+                ranges6.add(new long[] {
+                    address.hi & maskhi, address.lo & masklo
+                    , address.hi | ~maskhi, address.lo | ~masklo});
+            }
+            return true;
+        }
+
+        private Data build(boolean bloom) {
+            int[] s = Arrays.copyOf(singles, singleCount);
+            Arrays.sort(s);
+            int n = 0;
+            for(int i = 0; i < s.length; i++) {
+                if((n == 0) || (s[n - 1] != s[i])) s[n++] = s[i];
+            }
+            s = Arrays.copyOf(s, n);
+
+            long[] r4 = Arrays.copyOf(ranges4, range4Count);
+            Arrays.sort(r4);
+            n = 0;
+            for(int i = 0; i < r4.length; i++) {
+                long start = (r4[i] >>> 32) ^ SIGN;
+                long end = r4[i] & 0xffffffffL;
+                if(n > 0) {
+                    long last = r4[n - 1] & 0xffffffffL;
+                    if(start <= last + 1) {
+                        if(end > last) r4[n - 1] = (r4[n - 1] & 0xffffffff00000000L) | end;
+                        continue;
+                    }
+                }
+                r4[n++] = r4[i];
+            }
+            r4 = Arrays.copyOf(r4, n);
+
+            ranges6.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+            long[] r6 = new long[ranges6.size() * 4];
+            n = 0;
+            for(long[] range : ranges6) {
+                if(n > 0) {
+                    int last = (n - 1) * 4;
+                    if(compare(range[0], range[1], r6[last + 2], r6[last + 3]) <= 0) {
+                        if(compare(range[2], range[3], r6[last + 2], r6[last + 3]) > 0) {
+                            r6[last + 2] = range[2];
+                            r6[last + 3] = range[3];
+                        }
+                        continue;
+                    }
+                }
+                System.arraycopy(range, 0, r6, n * 4, 4);
+                n++;
+            }
+            r6 = Arrays.copyOf(r6, n * 4);
+            return new Data(s, r4, r6, bloom);
+        }
+    }
+}
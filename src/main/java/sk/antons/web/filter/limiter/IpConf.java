@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ip address configuration. Values can be single addresses or cidr
+ * ranges (IPv4 or IPv6).
+ * <pre>
+ *   filter.limit().ip()
+ *       .include("10.0.0.0/8")
+ *       .include("2001:db8::/32")
+ *       .exclude("10.1.2.3");
+ * </pre>
+ * Values which are not ip addresses are compared as strings. Large 
+ * lists of excluded addresses can be added as IpBlocklist.
+ * @author antons
+ */
+public class IpConf<T> extends StringConf<T> {
+
+    // guarded by this
+    protected final List<IpBlocklist> blocklists = new ArrayList<IpBlocklist>();
+
+    public IpConf(T parent) { super(parent); }
+
+    /**
+     * Adds list of disallowed addresses. List can be reloaded later
+     * without configuration change.
+     * @param blocklist addresses to be rejected
+     * @return this configuration instance
+     */
+    public IpConf<T> exclude(IpBlocklist blocklist) {
+        if(blocklist == null) throw new IllegalArgumentException("Blocklist can't be null");
+        synchronized(this) { blocklists.add(blocklist); }
+        changed();
+        return this;
+    }
+
+    /**
+     * Creates immutable compiled form of this configuration.
+     * @return matcher
+     */
+    IpMatcher compileIp() { return (IpMatcher)compiled(); }
+
+    @Override
+    protected Object build() {
+        return IpMatcher.instance(includes, excludes, blocklists);
+    }
+
+    /**
+     * Only exact mode is supported for ip addresses (use cidr ranges).
+     */
+    @Override
+    public StringConf include(String value, Mode mode, boolean ignoreCase) { 
+        if(mode != Mode.EXACT) throw new IllegalArgumentException("Ip conf supports only addresses and ranges, not " + mode);
+        return include(value);
+    }
+
+    /**
+     * Only exact mode is supported for ip addresses (use cidr ranges).
+     */
+    @Override
+    public StringConf exclude(String value, Mode mode, boolean ignoreCase) { 
+        if(mode != Mode.EXACT) throw new IllegalArgumentException("Ip conf supports only addresses and ranges, not " + mode);
+        return exclude(value);
+    }
+
+    @Override
+    synchronized boolean isEmpty() { return super.isEmpty() && blocklists.isEmpty(); }
+
+    @Override
+    protected boolean allow(String value) {
+        IpAddress address = new IpAddress();
+        IpMatcher matcher = compileIp();
+        if(!address.parse(value)) address = null;
+        return !matcher.blocked(address) && matcher.allow(address, value);
+    }
+}
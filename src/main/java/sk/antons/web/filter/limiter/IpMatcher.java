@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable compiled form of IpConf. Addresses and cidr ranges are stored
+ * in tries, other values in sets. Blocklists are checked separately
+ * (see blocked()), because their content can change without limiter
+ * configuration change.
+ * @author antons
+ */
+class IpMatcher {
+
+    private final IpRanges includes = new IpRanges();
+    private final IpRanges excludes = new IpRanges();
+    private final Set<String> includeNames = new HashSet<String>();
+    private final Set<String> excludeNames = new HashSet<String>();
+    private final IpBlocklist[] blocklists;
+
+    private IpMatcher(Set<String> includes, Set<String> excludes, List<IpBlocklist> blocklists) {
+        this.blocklists = blocklists.toArray(new IpBlocklist[blocklists.size()]);
+        for(String value : includes) {
+            if(!this.includes.add(value)) includeNames.add(value);
+        }
+        for(String value : excludes) {
+            if(!this.excludes.add(value)) excludeNames.add(value);
+        }
+        this.includes.compact();
+        this.excludes.compact();
+    }
+
+    static IpMatcher instance(Set<String> includes, Set<String> excludes, List<IpBlocklist> blocklists) { 
+        return new IpMatcher(includes, excludes, blocklists); 
+    }
+
+    /**
+     * @return true if matcher accepts all values
+     */
+    boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty()
+            && includeNames.isEmpty() && excludeNames.isEmpty();
+    }
+
+    /**
+     * @return true if there is some blocklist
+     */
+    boolean hasBlocklists() { return blocklists.length > 0; }
+
+    /**
+     * Checks address against blocklists.
+     * @param address parsed address (null if value is not valid address)
+     * @return true if some blocklist contains address
+     */
+    boolean blocked(IpAddress address) {
+        if(address == null) return false;
+        for(IpBlocklist blocklist : blocklists) {
+            if(blocklist.contains(address)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks address against includes and excludes.
+     * @param address parsed address (null if value is not valid address)
+     * @param value textual address
+     * @return true if address is allowed
+     */
+    boolean allow(IpAddress address, String value) {
+        if(!includes.isEmpty() || !includeNames.isEmpty()) {
+            if(!includes.contains(address) && !includeNames.contains(value)) return false;
+        }
+        if(excludes.contains(address)) return false;
+        if(!excludeNames.isEmpty() && excludeNames.contains(value)) return false;
+        return true;
+    }
+
+    /**
+     * Checks remote address of request.
+     * @param view request attributes
+     * @return true if address is allowed
+     */
+    boolean allow(RequestView view) {
+        return allow(view.address(), view.ip());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Arrays;
+
+/**
+ * Set of cidr ranges stored as binary trie over address bits. Nodes are
+ * stored in int array (two children per node), so lookup only walks
+ * array for at most prefix length steps and does not allocate.
+ *
+ * Ranges are added only while limiter configuration is compiled. After
+ * that instance is only read.
+ * @author antons
+ */
+final class IpRanges {
+
+    // children[2 * node + bit]; 0 means no child (root is never child)
+    private int[] children = new int[32];
+    private boolean[] terminal = new boolean[16];
+    private int nodes = 1;
+    private int size = 0;
+
+    /**
+     * Adds range.
+     * @param address range address
+     * @param length prefix length in 128 bit space
+     * @return this
+     */
+    IpRanges add(IpAddress address, int length) {
+        int node = 0;
+        for(int i = 0; i < length; i++) {
+            if(terminal[node]) return this; // covered by wider range
+            int index = (node << 1) + address.bit(i);
+            int child = children[index];
+            if(child == 0) {
+                child = node();
+                children[index] = child;
+            }
+            node = child;
+        }
+        terminal[node] = true;
+        size++;
+        return this;
+    }
+
+    /**
+     * Adds range in textual form.
+     * @param value range like 10.0.0.0/8 or ip address
+     * @return false if value is not valid range
+     */
+    boolean add(String value) {
+        IpAddress address = new IpAddress();
+        int length = address.parseRange(value);
+        if(length < 0) return false;
+        add(address, length);
+        return true;
+    }
+
+    /**
+     * Trims internal arrays after all ranges are added.
+     * @return this
+     */
+    IpRanges compact() {
+        children = Arrays.copyOf(children, nodes << 1);
+        terminal = Arrays.copyOf(terminal, nodes);
+        return this;
+    }
+
+    boolean isEmpty() { return size == 0; }
+
+    /**
+     * Checks if address is in some range.
+     * @param address address
+     * @return true if some range contains address
+     */
+    boolean contains(IpAddress address) {
+        if(address == null) return false;
+        int node = 0;
+        for(int i = 0; i < 128; i++) {
+            if(terminal[node]) return true;
+            node = children[(node << 1) + address.bit(i)];
+            if(node == 0) return false;
+        }
+        return terminal[node];
+    }
+
+    private int node() {
+        if(nodes == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodes << 1);
+            children = Arrays.copyOf(children, nodes << 2);
+        }
+        return nodes++;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Decision of RequestLimiter for one request. It is created by first 
+ * check of the request and stored as request attribute, so response status 
+ * check after chain execution (and also other filters using the same 
+ * limiter) reuses it instead of evaluating all rules again.
+ * <pre>
+ *   LimiterDecision decision = limiter.decision(request);
+ *   if(decision.allowed()) { ... }
+ * </pre>
+ * @author antons
+ */
+public class LimiterDecision {
+
+    private final RequestView view;
+    private final boolean allowed;
+    private final RuleMatch match;
+
+    LimiterDecision(RequestView view, boolean allowed, RuleMatch match) {
+        this.view = view;
+        this.allowed = allowed;
+        this.match = match;
+    }
+
+    /**
+     * @return true if request is allowed by limiter
+     */
+    public boolean allowed() { return allowed; }
+
+    /**
+     * Request attributes read during evaluation.
+     * @return request view
+     */
+    public RequestView view() { return view; }
+
+    /**
+     * Applies response status predicates of path rules matched by this 
+     * request. Global and custom status checks are not applied.
+     * @param status response status
+     * @return true if status is allowed by matched rules
+     */
+    public boolean matchStatus(int status) { 
+        if(match == null) return false;
+        return match.allowStatus(status); 
+    }
+
+    RuleMatch match() { return match; }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Immutable compiled configuration of RequestLimiter. Limiter creates new 
+ * snapshot after configuration change and replaces the old one atomically, 
+ * so request checks never see partially changed configuration and never 
+ * lock.
+ * @author antons
+ */
+class LimiterSnapshot {
+
+    private final Limiter custom;
+    private final ResponseStatusCheck responseStatusCheck;
+    private final PathIndex includes;
+    private final PathIndex excludes;
+    private final IpMatcher ip;
+    private final HostMatcher host;
+    private final ContentTypeMatcher contenttype;
+    private final DecisionCache<DecisionKey, RuleMatch> cache;
+    private final int attributes;
+    private final String[] headers;
+
+    LimiterSnapshot(Limiter custom, ResponseStatusCheck responseStatusCheck
+            , PathConf<?> pathconf, IpConf<?> ipconf, HostConf<?> hostconf, ContentTypeConf<?> contenttypeconf
+            , int cacheSize) {
+        this.custom = custom;
+        this.responseStatusCheck = responseStatusCheck;
+        this.includes = pathconf.compileIncludes();
+        this.excludes = pathconf.compileExcludes();
+        this.ip = ipconf.compileIp();
+        this.host = hostconf.compileHost();
+        this.contenttype = contenttypeconf.compileContentType();
+        int rv = pathconf.attributes();
+        this.cache = ((cacheSize > 0) && ((rv & DecisionKey.UNCACHEABLE) == 0)) ? new DecisionCache<DecisionKey, RuleMatch>(cacheSize) : null;
+        if(!contenttype.isEmpty()) rv |= DecisionKey.CONTENTTYPE;
+        if(!ip.isEmpty()) rv |= DecisionKey.IP;
+        this.attributes = rv;
+        this.headers = pathconf.headers();
+    }
+
+    Limiter custom() { return custom; }
+    ResponseStatusCheck responseStatusCheck() { return responseStatusCheck; }
+
+    /**
+     * Evaluates rules (using cache if it is enabled).
+     * @param view request attributes
+     * @return match
+     */
+    RuleMatch match(RequestView view) {
+        // blocklists are never cached, they can be reloaded
+        if(ip.hasBlocklists() && ip.blocked(view.address())) return RuleMatch.DENIED;
+        RuleMatch rv = cachedRules(view);
+        // host is checked after cache, it can cause reverse DNS lookup
+        if(rv.allowed() && !host.isEmpty() && view.isHttp() && !host.allow(view.host())) return RuleMatch.DENIED;
+        return rv;
+    }
+
+    private RuleMatch cachedRules(RequestView view) {
+        if(cache == null) return matchRules(view);
+        DecisionKey key = DecisionKey.of(view, attributes, headers);
+        RuleMatch rv = cache.get(key);
+        if(rv == null) {
+            rv = matchRules(view);
+            cache.put(key, rv);
+        }
+        return rv;
+    }
+
+    private RuleMatch matchRules(RequestView view) {
+        if(!contenttype.isEmpty() && !contenttype.allow(view)) return RuleMatch.DENIED;
+        if(!ip.isEmpty() && !ip.allow(view)) return RuleMatch.DENIED;
+        if(!view.isHttp()) return RuleMatch.ALL;
+        return RuleMatch.of(includes, excludes, view, true, responseStatusCheck);
+    }
+
+    /**
+     * Collects matching path rules without other checks.
+     * @param view request attributes
+     * @return match
+     */
+    RuleMatch matchPath(RequestView view) {
+        return RuleMatch.of(includes, excludes, view, true, responseStatusCheck);
+    }
+}
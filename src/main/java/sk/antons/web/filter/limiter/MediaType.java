@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Locale;
+
+/**
+ * Parsed media type (type, subtype and structured syntax suffix) without 
+ * parameters. Instance can be also used as pattern with wildcards 
+ * (*&#47;*, application/*, application/*+json).
+ *
+ * Parsed content type headers are cached in bounded cache, as there is 
+ * usually only few distinct media types. Cache key is header value without 
+ * parameters, so boundaries and similar parameters don't fill the cache.
+ * @author antons
+ */
+final class MediaType {
+
+    private static final int CACHE_SIZE = 256;
+    private static final DecisionCache<String, MediaType> CACHE = new DecisionCache<String, MediaType>(CACHE_SIZE);
+    private static final MediaType INVALID = new MediaType("", "", null);
+
+    private final String type;
+    private final String subtype;
+    private final String suffix;
+    private final String essence;
+
+    private MediaType(String type, String subtype, String suffix) {
+        this.type = type;
+        this.subtype = subtype;
+        this.suffix = suffix;
+        this.essence = type + "/" + subtype;
+    }
+
+    /**
+     * Parses media type (parameters are ignored).
+     * @param value content type header value
+     * @return media type or null if value is not media type
+     */
+    static MediaType parse(String value) {
+        if(value == null) return null;
+        int end = value.indexOf(';');
+        if(end < 0) end = value.length();
+        int slash = value.indexOf('/');
+        if((slash < 0) || (slash > end)) return null;
+        String type = value.substring(0, slash).trim().toLowerCase(Locale.ROOT);
+        String subtype = value.substring(slash + 1, end).trim().toLowerCase(Locale.ROOT);
+        if(type.isEmpty() || subtype.isEmpty()) return null;
+        int plus = subtype.lastIndexOf('+');
+        String suffix = (plus < 0) ? null : subtype.substring(plus + 1);
+        return new MediaType(type, subtype, suffix);
+    }
+
+    /**
+     * Returns cached parsed media type.
+     * @param value content type header value
+     * @return media type or null if value is not media type
+     */
+    static MediaType of(String value) {
+        if(value == null) return null;
+        int end = value.indexOf(';');
+        String key = ((end < 0) ? value : value.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+        MediaType rv = CACHE.get(key);
+        if(rv == null) {
+            rv = parse(key);
+            if(rv == null) rv = INVALID;
+            CACHE.put(key, rv);
+        }
+        return (rv == INVALID) ? null : rv;
+    }
+
+    String type() { return type; }
+    String subtype() { return subtype; }
+    String suffix() { return suffix; }
+
+    /**
+     * @return type/subtype
+     */
+    String essence() { return essence; }
+
+    /**
+     * @return true if type or subtype contains wildcard
+     */
+    boolean isPattern() { return "*".equals(type) || subtype.startsWith("*"); }
+
+    /**
+     * Checks media type against this pattern.
+     * @param value checked media type
+     * @return true if value matches this pattern
+     */
+    boolean match(MediaType value) {
+        if(value == null) return false;
+        if(!"*".equals(type) && !type.equals(value.type)) return false;
+        if("*".equals(subtype)) return true;
+        if(subtype.startsWith("*+")) return suffix.equals(value.suffix);
+        return subtype.equals(value.subtype);
+    }
+
+    @Override
+    public String toString() { return essence; }
+}
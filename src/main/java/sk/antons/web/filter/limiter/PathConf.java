@@ -17,19 +17,26 @@ package sk.antons.web.filter.limiter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import sk.antons.web.path.PathMatcher;
 
 /**
- * Helper class for configuring path matchers in limiter.
+ * Helper class for configuring path matchers in limiter. Rule lists are 
+ * copy on write lists, so they can be compiled while configuration changes.
  * @author antons
  */
 public class PathConf<T> {
 
     private T parent = null;
     private int max = 64;
+    private boolean adaptive = false;
 
-    protected List<Combo> includes = new ArrayList<Combo>();
-    protected List<Combo> excludes = new ArrayList<Combo>();
+    protected volatile List<Combo> includes = new CopyOnWriteArrayList<Combo>();
+    protected volatile List<Combo> excludes = new CopyOnWriteArrayList<Combo>();
+    private Runnable listener = null;
+    // rules removed by clear() by description, rules added later take over their stats
+    private java.util.Map<String, Combo> retired = java.util.Collections.emptyMap();
     
     protected PathConf(T parent) { this.parent = parent; }
     
@@ -50,8 +57,119 @@ public class PathConf<T> {
      */
     public PathConf<T> reset(int max) {
         this.max = max;
-        includes = new ArrayList<Combo>();
-        excludes = new ArrayList<Combo>();
+        includes = new CopyOnWriteArrayList<Combo>();
+        excludes = new CopyOnWriteArrayList<Combo>();
+        changed();
+        return this;
+    }
+
+    /**
+     * Removes all include and exclude rules. Other settings (max number 
+     * of path elements and adaptive ordering) are kept. Rule added later 
+     * with the same description as removed one continues with its 
+     * evaluation and match counts, so reload of the same rules doesn't 
+     * lose statistics.
+     * @return this path configuration instance
+     */
+    public synchronized PathConf<T> clear() {
+        java.util.Map<String, Combo> map = new java.util.HashMap<String, Combo>();
+        for(Combo combo : includes) map.put("include " + combo, combo);
+        for(Combo combo : excludes) map.put("exclude " + combo, combo);
+        retired = map;
+        includes = new CopyOnWriteArrayList<Combo>();
+        excludes = new CopyOnWriteArrayList<Combo>();
+        changed();
+        return this;
+    }
+
+    private void addInclude(Combo combo) {
+        adopt("include ", combo);
+        includes.add(combo);
+    }
+
+    private void addExclude(Combo combo) {
+        adopt("exclude ", combo);
+        excludes.add(combo);
+    }
+
+    private synchronized void adopt(String prefix, Combo combo) {
+        if(retired.isEmpty()) return;
+        Combo old = retired.remove(prefix + combo);
+        if(old == null) return;
+        combo.evaluations.add(old.evaluations());
+        combo.matches.add(old.matches());
+    }
+
+    /**
+     * Notifies listener about configuration change.
+     */
+    protected void changed() {
+        if(listener != null) listener.run();
+    }
+
+    /**
+     * Sets listener notified about each configuration change.
+     * @param listener change listener
+     */
+    void listener(Runnable listener) { this.listener = listener; }
+
+    /**
+     * Request attributes referenced by rules (see DecisionKey constants).
+     * @return attribute mask
+     */
+    int attributes() {
+        int rv = 0;
+        for(Combo combo : includes) rv |= combo.attributes();
+        for(Combo combo : excludes) rv |= combo.attributes();
+        return rv;
+    }
+
+    /**
+     * Compiles include rules.
+     * @return include index
+     */
+    PathIndex compileIncludes() { return PathIndex.instance(includes, adaptive); }
+
+    /**
+     * Compiles exclude rules.
+     * @return exclude index
+     */
+    PathIndex compileExcludes() { return PathIndex.instance(excludes, adaptive); }
+
+    /**
+     * Enables adaptive ordering of rules. Result of rules doesn't depend on 
+     * their order, so rules with the same literal path prefix are from time 
+     * to time reordered by number of recent matches and most frequently 
+     * matching rules are tested first. Reordering is done by background 
+     * daemon thread once per second.
+     * @param adaptive true for adaptive ordering
+     * @return this path configuration instance
+     */
+    public PathConf<T> adaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        changed();
+        return this;
+    }
+
+    /**
+     * Evaluation and match counts of all rules. Rules with no matches 
+     * are candidates for pruning (see RuleStats.unused()).
+     * @return statistics of include rules followed by exclude rules
+     */
+    public List<RuleStats> stats() {
+        List<RuleStats> rv = new ArrayList<RuleStats>();
+        for(Combo combo : includes) rv.add(new RuleStats(true, combo));
+        for(Combo combo : excludes) rv.add(new RuleStats(false, combo));
+        return rv;
+    }
+
+    /**
+     * Clears evaluation and match counts of all rules.
+     * @return this path configuration instance
+     */
+    public PathConf<T> resetStats() {
+        for(Combo combo : includes) combo.resetStats();
+        for(Combo combo : excludes) combo.resetStats();
         return this;
     }
 
@@ -71,7 +189,8 @@ public class PathConf<T> {
      * @return this path configuration instance
      */
     public PathConf<T> include(String pattern, String method) { 
-        includes.add(Combo.instance(PathMatcher.instance(pattern, max), method)); 
+        addInclude(Combo.instance(pattern, max, method)); 
+        changed();
         return this;
     }
 
@@ -86,7 +205,38 @@ public class PathConf<T> {
      * @return this path configuration instance
      */
     public PathConf<T> include(String pattern, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck) { 
-        includes.add(Combo.instance(PathMatcher.instance(pattern, max), method, ip, host, contenttype, responseStatusCheck)); 
+        addInclude(Combo.instance(pattern, max, method, ip, host, contenttype, responseStatusCheck)); 
+        changed();
+        return this;
+    }
+
+    /**
+     * Add include path matcher with additional conditions
+     * @param pattern pattern for path matcher (mandatory)
+     * @param method method applied together with matcher if is is not null
+     * @param conditions conditions (HeaderCondition, QueryCondition) applied together with matcher
+     * @return this path configuration instance
+     */
+    public PathConf<T> include(String pattern, String method, RequestCondition... conditions) { 
+        return include(pattern, method, null, null, null, null, conditions);
+    }
+
+    /**
+     * Add include path matcher 
+     * @param pattern pattern for path matcher (mandatory)
+     * @param method method applied together with matcher if is is not null
+     * @param ip ip address applied together with matcher if is is not null
+     * @param host host name applied together with matcher if is is not null
+     * @param contenttype content type applied together with matcher if is is not null
+     * @param responseStatusCheck method applied together with matcher if is is not null
+     * @param conditions conditions (HeaderCondition, QueryCondition) applied together with matcher
+     * @return this path configuration instance
+     */
+    public PathConf<T> include(String pattern, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck, RequestCondition... conditions) { 
+        Combo combo = Combo.instance(pattern, max, method, ip, host, contenttype, responseStatusCheck);
+        combo.conditions(conditions);
+        addInclude(combo); 
+        changed();
         return this;
     }
 
@@ -106,7 +256,8 @@ public class PathConf<T> {
      * @return this path configuration instance
      */
     public PathConf<T> exclude(String pattern, String method) { 
-        excludes.add(Combo.instance(PathMatcher.instance(pattern, max), method)); 
+        addExclude(Combo.instance(pattern, max, method)); 
+        changed();
         return this;
     }
     
@@ -121,10 +272,60 @@ public class PathConf<T> {
      * @return this path configuration instance
      */
     public PathConf<T> exclude(String pattern, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck) { 
-        excludes.add(Combo.instance(PathMatcher.instance(pattern, max), method, ip, host, contenttype, responseStatusCheck)); 
+        addExclude(Combo.instance(pattern, max, method, ip, host, contenttype, responseStatusCheck)); 
+        changed();
+        return this;
+    }
+
+    /**
+     * Add exclude path matcher with additional conditions
+     * @param pattern pattern for path matcher (mandatory)
+     * @param method method applied together with matcher if is is not null
+     * @param conditions conditions (HeaderCondition, QueryCondition) applied together with matcher
+     * @return this path configuration instance
+     */
+    public PathConf<T> exclude(String pattern, String method, RequestCondition... conditions) { 
+        return exclude(pattern, method, null, null, null, null, conditions);
+    }
+
+    /**
+     * Add exclude path matcher 
+     * @param pattern pattern for path matcher (mandatory)
+     * @param method method applied together with matcher if is is not null
+     * @param ip ip address applied together with matcher if is is not null
+     * @param host host name applied together with matcher if is is not null
+     * @param contenttype content type applied together with matcher if is is not null
+     * @param responseStatusCheck method applied together with matcher if is is not null
+     * @param conditions conditions (HeaderCondition, QueryCondition) applied together with matcher
+     * @return this path configuration instance
+     */
+    public PathConf<T> exclude(String pattern, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck, RequestCondition... conditions) { 
+        Combo combo = Combo.instance(pattern, max, method, ip, host, contenttype, responseStatusCheck);
+        combo.conditions(conditions);
+        addExclude(combo); 
+        changed();
         return this;
     }
 
+    /**
+     * Normalized names of headers referenced by rules.
+     * @return header names
+     */
+    String[] headers() {
+        java.util.Set<String> rv = new java.util.LinkedHashSet<String>();
+        for(Combo combo : includes) {
+            for(RequestCondition condition : combo.conditions) {
+                if(condition instanceof HeaderCondition) rv.add(((HeaderCondition)condition).name());
+            }
+        }
+        for(Combo combo : excludes) {
+            for(RequestCondition condition : combo.conditions) {
+                if(condition instanceof HeaderCondition) rv.add(((HeaderCondition)condition).name());
+            }
+        }
+        return rv.toArray(new String[rv.size()]);
+    }
+
     public static class ComboConf {
         private int max;
         private Combo combo;
@@ -140,26 +341,41 @@ public class PathConf<T> {
             return new ComboConf(combo, pathConf, max);
         }
 
-        public ComboConf withIp(String ip) {this.combo.ip = ip; return this;}
-        public ComboConf withHost(String host) {this.combo.host = host; return this;}
-        public ComboConf withContentType(String contenttype) {this.combo.contenttype = contenttype; return this;}
-        public ComboConf withResponseStatus(ResponseStatusCheck check) {this.combo.responseStatusCheck = check; return this;}
+        public ComboConf withIp(String ip) {this.combo.ip(ip); this.pathConf.changed(); return this;}
+        public ComboConf withHost(String host) {this.combo.host(host); this.pathConf.changed(); return this;}
+        public ComboConf withContentType(String contenttype) {this.combo.contentType(contenttype); this.pathConf.changed(); return this;}
+        public ComboConf withResponseStatus(ResponseStatusCheck check) {this.combo.responseStatusCheck = check; this.pathConf.changed(); return this;}
+        public ComboConf withResponseStatus(String spec) {return withResponseStatus(StatusSpec.parse(spec));}
+        public ComboConf with(RequestCondition condition) {this.combo.condition(condition); this.pathConf.changed(); return this;}
+        public ComboConf withHeader(HeaderCondition header) {return with(header);}
+        public ComboConf withHeader(String name, String value) {return withHeader(HeaderCondition.equals(name, value));}
+        public ComboConf withHeaderPrefix(String name, String prefix) {return withHeader(HeaderCondition.prefix(name, prefix));}
+        public ComboConf withHeaderPresent(String name) {return withHeader(HeaderCondition.present(name));}
+        public ComboConf withHeaderAbsent(String name) {return withHeader(HeaderCondition.absent(name));}
+        public ComboConf withQuery(String name, String value) {return with(QueryCondition.equals(name, value));}
+        public ComboConf withQueryPrefix(String name, String prefix) {return with(QueryCondition.prefix(name, prefix));}
+        public ComboConf withQueryPresent(String name) {return with(QueryCondition.present(name));}
+        public ComboConf withQueryAbsent(String name) {return with(QueryCondition.absent(name));}
         public PathConf exclude(String pattern) {
             return exclude(pattern, null);
         }
         public PathConf exclude(String pattern, String method) { 
+            this.combo.pattern = pattern;
             this.combo.matcher = PathMatcher.instance(pattern, max);
             this.combo.method = method; 
             this.pathConf.excludes.add(this.combo);
+            this.pathConf.changed();
             return this.pathConf;
         }
         public PathConf include(String pattern) {
             return include(pattern, null);
         }
         public PathConf include(String pattern, String method) { 
+            this.combo.pattern = pattern;
             this.combo.matcher = PathMatcher.instance(pattern, max);
             this.combo.method = method; 
             this.pathConf.includes.add(this.combo);
+            this.pathConf.changed();
             return this.pathConf;
         }
 
@@ -167,12 +383,20 @@ public class PathConf<T> {
     }
     
     protected static class Combo {
+        private String pattern;
         private PathMatcher matcher;
         private String method;
         private String ip;
+        private IpRanges iprange;
         private String host;
+        private HostTrie hostpattern;
         private String contenttype;
+        private MediaType mediatype;
         private ResponseStatusCheck responseStatusCheck = null;
+        private RequestCondition[] conditions = NO_CONDITIONS;
+        private static final RequestCondition[] NO_CONDITIONS = new RequestCondition[0];
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder matches = new LongAdder();
         
         public Combo(PathMatcher matcher, String method) {
             this.matcher = matcher;
@@ -182,9 +406,9 @@ public class PathConf<T> {
         public Combo(PathMatcher matcher, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck) {
             this.matcher = matcher;
             this.method = method;
-            this.ip = ip;
-            this.host = host;
-            this.contenttype = contenttype;
+            ip(ip);
+            host(host);
+            contentType(contenttype);
             this.responseStatusCheck = responseStatusCheck;
         }
 
@@ -195,6 +419,117 @@ public class PathConf<T> {
         public static Combo instance(PathMatcher matcher, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck) {
             return new Combo(matcher, method, ip, host, contenttype, responseStatusCheck);
         }
+
+        public static Combo instance(String pattern, int max, String method) {
+            Combo combo = new Combo(PathMatcher.instance(pattern, max), method);
+            combo.pattern = pattern;
+            return combo;
+        }
+
+        public static Combo instance(String pattern, int max, String method, String ip, String host, String contenttype, ResponseStatusCheck responseStatusCheck) {
+            Combo combo = new Combo(PathMatcher.instance(pattern, max), method, ip, host, contenttype, responseStatusCheck);
+            combo.pattern = pattern;
+            return combo;
+        }
+
+        /**
+         * Sets ip condition. Value can be address or cidr range 
+         * (10.0.0.0/8), other values are compared as strings.
+         */
+        private void ip(String ip) {
+            this.ip = ip;
+            IpRanges range = new IpRanges();
+            this.iprange = ((ip != null) && range.add(ip)) ? range.compact() : null;
+        }
+
+        /**
+         * Sets host condition. Value can be host name or pattern like 
+         * *.example.com (see HostConf). Host is compared case insensitive.
+         */
+        private void host(String host) {
+            this.host = host;
+            HostTrie pattern = null;
+            if((host != null) && ((host.indexOf('*') >= 0) || host.startsWith("."))) {
+                pattern = new HostTrie();
+                if(!pattern.add(host)) pattern = null;
+            }
+            this.hostpattern = pattern;
+        }
+
+        /**
+         * Sets content type condition. Media type is compared without 
+         * parameters and can contain wildcards (application/*+json). 
+         * Other values are compared with raw header.
+         */
+        private void contentType(String contenttype) {
+            this.contenttype = contenttype;
+            this.mediatype = MediaType.parse(contenttype);
+        }
+
+        private void conditions(RequestCondition[] conditions) {
+            if(conditions == null) return;
+            for(RequestCondition condition : conditions) condition(condition);
+        }
+
+        private void condition(RequestCondition condition) {
+            if(condition == null) throw new IllegalArgumentException("Condition can't be null");
+            RequestCondition[] rv = java.util.Arrays.copyOf(conditions, conditions.length + 1);
+            rv[conditions.length] = condition;
+            this.conditions = rv;
+        }
+
+        /**
+         * Path pattern of this rule. It is null if rule was created
+         * directly from matcher.
+         * @return pattern
+         */
+        public String pattern() { return pattern; }
+
+        /**
+         * Number of requests where this rule was evaluated. Requests decided 
+         * by decision cache or by previous rule are not counted.
+         * @return evaluation count
+         */
+        public long evaluations() { return evaluations.sum(); }
+
+        /**
+         * Number of requests matched by this rule (status is not checked).
+         * @return match count
+         */
+        public long matches() { return matches.sum(); }
+
+        void evaluated() { evaluations.increment(); }
+        void matched() { matches.increment(); }
+
+        void resetStats() {
+            evaluations.reset();
+            matches.reset();
+        }
+
+        /**
+         * @return response status check of this rule (null if status is not checked)
+         */
+        ResponseStatusCheck responseStatusCheck() { return responseStatusCheck; }
+
+        /**
+         * Request attributes referenced by this rule (see DecisionKey constants).
+         * @return attribute mask
+         */
+        int attributes() {
+            int rv = 0;
+            if(matcher != null) rv |= DecisionKey.PATH;
+            if(method != null) rv |= DecisionKey.METHOD;
+            if(ip != null) rv |= DecisionKey.IP;
+            // host is not part of cache key (reverse DNS lookup)
+            if(host != null) rv |= DecisionKey.UNCACHEABLE;
+            if(contenttype != null) rv |= DecisionKey.CONTENTTYPE;
+            for(RequestCondition condition : conditions) {
+                if(condition instanceof HeaderCondition) rv |= DecisionKey.HEADERS;
+                else if(condition instanceof QueryCondition) rv |= DecisionKey.QUERY;
+                else rv |= DecisionKey.UNCACHEABLE;
+            }
+            return rv;
+        }
         
         public boolean match(int responseStatus) {
             if(responseStatus <=0) return true;
@@ -205,22 +540,101 @@ public class PathConf<T> {
         }
 
         public boolean match(String path, String method, String ip, String host, String contenttype) {
+            if(!matchPath(path)) return false;
+            if(!equals(this.method, method)) return false;
+            if(!matchIp(ip)) return false;
+            if(!matchContentType(MediaType.of(contenttype), contenttype)) return false;
+            if(!matchHost(host)) return false;
+            // conditions can be checked only with request
+            if(conditions.length > 0) return false;
+            return true;
+        }
+
+        /**
+         * Checks all rule conditions. Cheap conditions are checked first 
+         * and host (possible reverse DNS lookup) as last one.
+         * @param view request attributes
+         * @return true if rule matches request
+         */
+        public boolean match(RequestView view) {
+            if(!matchCheap(view)) return false;
+            if(!matchPath(view.path())) return false;
+            return matchHost(view);
+        }
+
+        public boolean matchPath(String path) {
             if(this.matcher != null) {
                 if(!matcher.match(path)) return false;
             }
-            if(this.method != null) {
-                if(!this.method.equals(method)) return false;
-            }
+            return true;
+        }
+
+        /**
+         * Checks method, ip, content type and additional conditions.
+         * @param view request attributes
+         * @return true if conditions match
+         */
+        boolean matchCheap(RequestView view) {
+            if((this.method != null) && !this.method.equals(view.method())) return false;
             if(this.ip != null) {
-                if(!this.ip.equals(ip)) return false;
+                if(iprange != null) {
+                    if(!iprange.contains(view.address())) return false;
+                } else if(!this.ip.equals(view.ip())) {
+                    return false;
+                }
             }
-            if(this.host != null) {
-                if(!this.host.equals(host)) return false;
-            }
-            if(this.contenttype != null) {
-                if(!this.contenttype.equals(contenttype)) return false;
+            if((this.contenttype != null) && !matchContentType(view.mediaType(), view.contentType())) return false;
+            for(RequestCondition condition : conditions) {
+                if(!condition.match(view)) return false;
             }
             return true;
         }
+
+        /**
+         * Checks host condition.
+         * @param view request attributes
+         * @return true if condition matches
+         */
+        boolean matchHost(RequestView view) {
+            if(this.host == null) return true;
+            return matchHost(view.host());
+        }
+
+        private boolean matchContentType(MediaType type, String value) {
+            if(this.contenttype == null) return true;
+            if(mediatype == null) return this.contenttype.equals(value);
+            return mediatype.match(type);
+        }
+
+        private boolean matchHost(String host) {
+            if(this.host == null) return true;
+            if(hostpattern != null) return hostpattern.contains(host);
+            return this.host.equalsIgnoreCase(host);
+        }
+
+        private boolean matchIp(String ip) {
+            if(this.ip == null) return true;
+            if(iprange == null) return this.ip.equals(ip);
+            IpAddress address = new IpAddress();
+            return address.parse(ip) && iprange.contains(address);
+        }
+
+        private static boolean equals(String expected, String value) {
+            if(expected == null) return true;
+            return expected.equals(value);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append((pattern == null) ? String.valueOf(matcher) : pattern);
+            if(method != null) sb.append(" method=").append(method);
+            if(ip != null) sb.append(" ip=").append(ip);
+            if(host != null) sb.append(" host=").append(host);
+            if(contenttype != null) sb.append(" contenttype=").append(contenttype);
+            if(responseStatusCheck != null) sb.append(" status=").append(responseStatusCheck);
+            for(RequestCondition condition : conditions) sb.append(' ').append(condition);
+            return sb.toString();
+        }
     }
 }
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiled form of path rules. Rules are stored in trie keyed by literal
+ * path elements of their patterns. Rule is stored in node where its
+ * literal prefix ends. So for a request only rules on the path of request
+ * elements in trie are checked.
+ *
+ * Fully literal patterns are matched by string equality with request
+ * path. Only if request path is not canonical (like /foo/bar/ or
+ * //foo//bar) literal pattern is checked by its PathMatcher, so result is
+ * always the same as with PathMatcher. Patterns with wildcards are checked
+ * by its PathMatcher only if literal prefix matches. Patterns starting 
+ * with wildcard (like /**&#47;health) are indexed by their last literal 
+ * element and they are checked only for requests with the same last 
+ * element. Only patterns without any literal prefix or suffix are checked 
+ * for each request.
+ *
+ * Collected rules are a set (order of rules has no effect on result), so 
+ * collecting stops at first matching rule without status check. Such rule 
+ * accepts (include) or rejects (exclude) all statuses and other matching 
+ * rules can't change the result. In adaptive mode rules of each node are 
+ * reordered each second by number of recent matches, so frequently 
+ * matching rules are tested first. Reordering is done by one shared daemon 
+ * thread (request threads continue with previous order) and index which 
+ * is not used anymore is dropped from reordering by garbage collector.
+ * @author antons
+ */
+class PathIndex {
+
+    private static final String[] EMPTY = new String[0];
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+    private static final long REORDER_MILLIS = 1000;
+    // adaptive indexes, weak so replaced snapshots are collected
+    private static final Set<PathIndex> ADAPTIVE = Collections.newSetFromMap(new WeakHashMap<PathIndex, Boolean>());
+    // guarded by ADAPTIVE
+    private static ScheduledExecutorService reorderer = null;
+
+    private final Node root = new Node();
+    // patterns starting with wildcard by their last element
+    private final Map<String, Node> suffixes = new HashMap<String, Node>();
+    private final int size;
+    private final Node[] reorderable;
+
+    private PathIndex(List<PathConf.Combo> combos, boolean adaptive) {
+        List<Node> nodes = new ArrayList<Node>();
+        int count = 0;
+        for(PathConf.Combo combo : combos) {
+            Node node = add(combo);
+            if(node.entries.length == 2) nodes.add(node);
+            count++;
+        }
+        this.size = count;
+        this.reorderable = nodes.toArray(new Node[nodes.size()]);
+        if(adaptive && (reorderable.length > 0)) schedule(this);
+    }
+
+    private static void schedule(PathIndex index) {
+        synchronized(ADAPTIVE) {
+            ADAPTIVE.add(index);
+            if(reorderer != null) return;
+            reorderer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "PathIndex-reorder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reorderer.scheduleWithFixedDelay(PathIndex::reorderAll, REORDER_MILLIS, REORDER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void reorderAll() {
+        List<PathIndex> indexes = null;
+        synchronized(ADAPTIVE) {
+            indexes = new ArrayList<PathIndex>(ADAPTIVE);
+        }
+        for(PathIndex index : indexes) {
+            try {
+                index.reorder();
+            } catch(RuntimeException e) {
+                // next indexes must be reordered anyway
+            }
+        }
+    }
+
+    static PathIndex instance(List<PathConf.Combo> combos) { return new PathIndex(combos, false); }
+
+    /**
+     * @param combos rules
+     * @param adaptive true if rules should be reordered by number of matches
+     * @return index
+     */
+    static PathIndex instance(List<PathConf.Combo> combos, boolean adaptive) { return new PathIndex(combos, adaptive); }
+
+    boolean isEmpty() { return size == 0; }
+
+    /**
+     * Splits path to non empty elements.
+     * @param path path to split
+     * @return path elements
+     */
+    static String[] split(String path) {
+        if((path == null) || path.isEmpty()) return EMPTY;
+        List<String> list = null;
+        int len = path.length();
+        int start = 0;
+        for(int i = 0; i <= len; i++) {
+            if((i == len) || (path.charAt(i) == '/')) {
+                if(i > start) {
+                    if(list == null) list = new ArrayList<String>(8);
+                    list.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        if(list == null) return EMPTY;
+        return list.toArray(EMPTY);
+    }
+
+    private static boolean isLiteral(String element) {
+        for(int i = 0; i < element.length(); i++) {
+            char c = element.charAt(i);
+            if((c == '*') || (c == '?') || (c == '{') || (c == '}')
+                || (c == '[') || (c == ']') || (c == '\\')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Path is canonical if it starts with / and has no empty elements 
+     * (no // and no / at the end). Such path equals to path built from 
+     * its elements.
+     */
+    static boolean canonical(String path) {
+        if((path == null) || path.isEmpty() || (path.charAt(0) != '/')) return false;
+        if(path.length() == 1) return true;
+        if(path.charAt(path.length() - 1) == '/') return false;
+        return path.indexOf("//") < 0;
+    }
+
+    private Node add(PathConf.Combo combo) {
+        String[] elements = split(combo.pattern());
+        if((elements.length > 1) 
+            && !isLiteral(elements[0]) 
+            && isLiteral(elements[elements.length - 1])) {
+            Node node = suffixes.computeIfAbsent(elements[elements.length - 1], (key) -> new Node());
+            return add(node, combo, false);
+        }
+        Node node = root;
+        boolean literal = canonical(combo.pattern());
+        for(String element : elements) {
+            if(!isLiteral(element)) {
+                literal = false;
+                break;
+            }
+            node = node.child(element);
+        }
+        return add(node, combo, literal);
+    }
+
+    private static Node add(Node node, PathConf.Combo combo, boolean literal) {
+        Entry[] entries = Arrays.copyOf(node.entries, node.entries.length + 1);
+        entries[node.entries.length] = new Entry(combo, literal);
+        node.entries = entries;
+        return node;
+    }
+
+    private Node suffix(String[] elements) {
+        if(suffixes.isEmpty() || (elements.length == 0)) return null;
+        return suffixes.get(elements[elements.length - 1]);
+    }
+
+    /**
+     * Checks path of the rule. Literal rule (already found in node of last 
+     * request element) matches path equal to its pattern.
+     */
+    private static boolean matchPath(Entry entry, RequestView view) {
+        if(!entry.literal) return entry.combo.matchPath(view.path());
+        String path = view.path();
+        if(path.equals(entry.combo.pattern())) return true;
+        return !canonical(path) && entry.combo.matchPath(path);
+    }
+
+    /**
+     * Checks if any rule matches request attributes.
+     * @param view request attributes
+     * @param status response status or -1 if status should not be checked
+     * @return true if some rule matches
+     */
+    boolean any(RequestView view, int status) {
+        String[] elements = view.elements();
+        Node node = root;
+        int depth = 0;
+        while(node != null) {
+            if(any(node, view, depth, status)) return true;
+            if(depth >= elements.length) break;
+            node = (node.children == null) ? null : node.children.get(elements[depth]);
+            depth++;
+        }
+        node = suffix(elements);
+        return (node != null) && any(node, view, -1, status);
+    }
+
+    private static boolean any(Node node, RequestView view, int depth, int status) {
+        for(Entry entry : node.entries) {
+            if(entry.literal && (view.elements().length != depth)) continue;
+            if(!entry.combo.matchCheap(view)) continue;
+            if(!matchPath(entry, view)) continue;
+            if(!entry.combo.matchHost(view)) continue;
+            if((status > 0) && !entry.combo.match(status)) continue;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collects rules matching request attributes (status is not checked).
+     * Collecting stops at first matching rule without status check.
+     * @param view request attributes
+     * @param list list for matching rules
+     */
+    void collect(RequestView view, List<PathConf.Combo> list) {
+        String[] elements = view.elements();
+        Node node = root;
+        int depth = 0;
+        while(node != null) {
+            if(collect(node, view, depth, list)) return;
+            if(depth >= elements.length) break;
+            node = (node.children == null) ? null : node.children.get(elements[depth]);
+            depth++;
+        }
+        node = suffix(elements);
+        if(node != null) collect(node, view, -1, list);
+    }
+
+    /**
+     * @return true if terminal rule matches and collecting can stop
+     */
+    private static boolean collect(Node node, RequestView view, int depth, List<PathConf.Combo> list) {
+        for(Entry entry : node.entries) {
+            if(entry.literal && (view.elements().length != depth)) continue;
+            PathConf.Combo combo = entry.combo;
+            combo.evaluated();
+            if(!combo.matchCheap(view)) continue;
+            if(!matchPath(entry, view)) continue;
+            if(!combo.matchHost(view)) continue;
+            combo.matched();
+            list.add(combo);
+            if(entry.terminal) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sorts rules of nodes by number of matches since previous reordering 
+     * (with older matches halved each time). Called only by reordering thread.
+     */
+    private void reorder() {
+        for(Node node : reorderable) {
+            Entry[] entries = node.entries.clone();
+            for(Entry entry : entries) {
+                long matches = entry.combo.matches();
+                entry.score = (entry.score >> 1) + (matches - entry.seen);
+                entry.seen = matches;
+            }
+            Arrays.sort(entries, (a, b) -> Long.compare(b.score, a.score));
+            node.entries = entries;
+        }
+    }
+
+    /**
+     * Current order of rules (for diagnostics).
+     * @return rules in order in which they are tested
+     */
+    List<PathConf.Combo> rules() {
+        List<PathConf.Combo> rv = new ArrayList<PathConf.Combo>(size);
+        rules(root, rv);
+        for(Node node : suffixes.values()) rules(node, rv);
+        return rv;
+    }
+
+    private static void rules(Node node, List<PathConf.Combo> list) {
+        for(Entry entry : node.entries) list.add(entry.combo);
+        if(node.children == null) return;
+        for(Node child : node.children.values()) rules(child, list);
+    }
+
+    private static class Entry {
+        private final PathConf.Combo combo;
+        private final boolean literal;
+        private final boolean terminal;
+        // written only by reordering thread
+        private long score = 0;
+        private long seen = 0;
+
+        private Entry(PathConf.Combo combo, boolean literal) {
+            this.combo = combo;
+            this.literal = literal;
+            this.terminal = combo.responseStatusCheck() == null;
+            this.seen = combo.matches();
+        }
+    }
+
+    private static class Node {
+        private Map<String, Node> children = null;
+        private volatile Entry[] entries = NO_ENTRIES;
+
+        private Node child(String element) {
+            if(children == null) children = new HashMap<String, Node>();
+            return children.computeIfAbsent(element, (key) -> new Node());
+        }
+    }
+}
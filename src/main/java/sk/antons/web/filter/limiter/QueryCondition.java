@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Query string parameter condition for path rules. Query string is
+ * tokenized once per request from getQueryString() (getParameter() is never
+ * used, so body of form requests is not parsed). Condition matches if
+ * any occurrence of parameter matches.
+ * <pre>
+ *   filter.limit().path()
+ *       .include("/foo/**", null, QueryCondition.equals("debug", "true"))
+ *       .exclude("/foo/**", null, QueryCondition.present("healthcheck"));
+ * </pre>
+ * @author antons
+ */
+public final class QueryCondition implements RequestCondition {
+
+    private static final int EQUALS = 1;
+    private static final int PREFIX = 2;
+    private static final int PRESENT = 3;
+    private static final int ABSENT = 4;
+
+    private final String name;
+    private final int kind;
+    private final String value;
+
+    private QueryCondition(String name, int kind, String value) {
+        if((name == null) || name.isEmpty()) throw new IllegalArgumentException("Parameter name can't be empty");
+        if((value == null) && ((kind == EQUALS) || (kind == PREFIX))) throw new IllegalArgumentException("Parameter value can't be null");
+        this.name = name;
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * Parameter has given value.
+     * @param name parameter name
+     * @param value parameter value
+     * @return condition
+     */
+    public static QueryCondition equals(String name, String value) { return new QueryCondition(name, EQUALS, value); }
+
+    /**
+     * Parameter value starts with given prefix.
+     * @param name parameter name
+     * @param prefix value prefix
+     * @return condition
+     */
+    public static QueryCondition prefix(String name, String prefix) { return new QueryCondition(name, PREFIX, prefix); }
+
+    /**
+     * Parameter is present.
+     * @param name parameter name
+     * @return condition
+     */
+    public static QueryCondition present(String name) { return new QueryCondition(name, PRESENT, null); }
+
+    /**
+     * Parameter is not present.
+     * @param name parameter name
+     * @return condition
+     */
+    public static QueryCondition absent(String name) { return new QueryCondition(name, ABSENT, null); }
+
+    /**
+     * Parses condition from rules file form (value, prefix*, * for present
+     * and ! for absent).
+     * @param name parameter name
+     * @param spec condition value
+     * @return condition
+     */
+    static QueryCondition parse(String name, String spec) {
+        if("*".equals(spec)) return present(name);
+        if("!".equals(spec)) return absent(name);
+        if(spec.endsWith("*")) return prefix(name, spec.substring(0, spec.length() - 1));
+        return equals(name, spec);
+    }
+
+    /**
+     * @return parameter name
+     */
+    public String name() { return name; }
+
+    @Override
+    public boolean match(RequestView view) {
+        QueryString query = view.query();
+        boolean present = false;
+        for(int i = 0; i < query.size(); i++) {
+            if(!query.nameEquals(i, name)) continue;
+            present = true;
+            if((kind == EQUALS) && query.valueEquals(i, value)) return true;
+            if((kind == PREFIX) && query.valueStartsWith(i, value)) return true;
+        }
+        if(kind == PRESENT) return present;
+        if(kind == ABSENT) return !present;
+        return false;
+    }
+
+    @Override
+    public int cost() { return 4; }
+
+    @Override
+    public String toString() {
+        switch(kind) {
+            case EQUALS: return "query." + name + "=" + value;
+            case PREFIX: return "query." + name + "=" + value + "*";
+            case PRESENT: return "query." + name + "=*";
+            default: return "query." + name + "=!";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenized query string. Parameters are stored as offsets to original
+ * string, so names and values are compared in place. Only parameters
+ * containing escapes (% or +) are decoded when they are compared.
+ *
+ * It never calls getParameter(), which would force container to parse
+ * body of form requests.
+ * @author antons
+ */
+final class QueryString {
+
+    static final QueryString EMPTY = new QueryString("", new int[0], new byte[0], 0);
+
+    private static final byte NAME_ESCAPED = 1;
+    private static final byte VALUE_ESCAPED = 2;
+
+    private final String query;
+    // name start, name end, value start, value end (-1 if there is no value)
+    private final int[] bounds;
+    private final byte[] escaped;
+    private final int size;
+
+    private QueryString(String query, int[] bounds, byte[] escaped, int size) {
+        this.query = query;
+        this.bounds = bounds;
+        this.escaped = escaped;
+        this.size = size;
+    }
+
+    /**
+     * Tokenizes query string.
+     * @param query raw query string (without ?)
+     * @return tokenized query
+     */
+    static QueryString parse(String query) {
+        if((query == null) || query.isEmpty()) return EMPTY;
+        int len = query.length();
+        int max = 1;
+        for(int i = 0; i < len; i++) {
+            if(query.charAt(i) == '&') max++;
+        }
+        int[] bounds = new int[max * 4];
+        byte[] escaped = new byte[max];
+        int size = 0;
+        int start = 0;
+        int eq = -1;
+        byte esc = 0;
+        for(int i = 0; i <= len; i++) {
+            char c = (i == len) ? '&' : query.charAt(i);
+            if(c == '&') {
+                if(i > start) {
+                    int p = size * 4;
+                    bounds[p] = start;
+                    bounds[p + 1] = (eq < 0) ? i : eq;
+                    bounds[p + 2] = (eq < 0) ? -1 : eq + 1;
+                    bounds[p + 3] = (eq < 0) ? -1 : i;
+                    escaped[size] = esc;
+                    size++;
+                }
+                start = i + 1;
+                eq = -1;
+                esc = 0;
+            } else if((c == '=') && (eq < 0)) {
+                eq = i;
+            } else if((c == '%') || (c == '+')) {
+                esc |= (eq < 0) ? NAME_ESCAPED : VALUE_ESCAPED;
+            }
+        }
+        return new QueryString(query, bounds, escaped, size);
+    }
+
+    /**
+     * @return number of parameters
+     */
+    int size() { return size; }
+
+    /**
+     * @param index parameter index
+     * @param name decoded name
+     * @return true if parameter has given name
+     */
+    boolean nameEquals(int index, String name) {
+        int start = bounds[index * 4];
+        int end = bounds[(index * 4) + 1];
+        if((escaped[index] & NAME_ESCAPED) != 0) return name.equals(decode(start, end));
+        return ((end - start) == name.length()) && query.regionMatches(start, name, 0, end - start);
+    }
+
+    /**
+     * @param index parameter index
+     * @return true if parameter has = part
+     */
+    boolean hasValue(int index) { return bounds[(index * 4) + 2] >= 0; }
+
+    /**
+     * @param index parameter index
+     * @param value decoded value
+     * @return true if parameter has given value
+     */
+    boolean valueEquals(int index, String value) {
+        int start = bounds[(index * 4) + 2];
+        int end = bounds[(index * 4) + 3];
+        if(start < 0) return false;
+        if((escaped[index] & VALUE_ESCAPED) != 0) return value.equals(decode(start, end));
+        return ((end - start) == value.length()) && query.regionMatches(start, value, 0, end - start);
+    }
+
+    /**
+     * @param index parameter index
+     * @param prefix decoded prefix
+     * @return true if parameter value starts with prefix
+     */
+    boolean valueStartsWith(int index, String prefix) {
+        int start = bounds[(index * 4) + 2];
+        int end = bounds[(index * 4) + 3];
+        if(start < 0) return false;
+        if((escaped[index] & VALUE_ESCAPED) != 0) return decode(start, end).startsWith(prefix);
+        return ((end - start) >= prefix.length()) && query.startsWith(prefix, start);
+    }
+
+    /**
+     * @param index parameter index
+     * @return decoded value or null if parameter has no value
+     */
+    String value(int index) {
+        int start = bounds[(index * 4) + 2];
+        if(start < 0) return null;
+        return decode(start, bounds[(index * 4) + 3]);
+    }
+
+    private String decode(int start, int end) {
+        String value = query.substring(start, end);
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch(IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
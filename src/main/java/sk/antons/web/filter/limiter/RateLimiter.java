@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps number of log events per second for each path rule of limiter. 
+ * Each include rule which matched request (see RequestLimiter.decision())
+ * has its own token bucket, requests matched by no include rule share 
+ * one bucket.
+ *
+ * Token is taken only when filter really emits the line (after response 
+ * status check), so requests which would never be logged don't use the 
+ * budget. Number of requests rejected since last logged request of the 
+ * same rule is returned by next successful acquire, so filter can report 
+ * it.
+ * <pre>
+ *   filter.rateLimit(RateLimiter.instance(10));   // max 10 log events per second and rule
+ *   filter.rateLimit(RateLimiter.instance(1, 5)); // 1 per second with burst 5
+ * </pre>
+ * @author antons
+ */
+public class RateLimiter {
+
+    // max number of tracked rules, buckets of rules removed by reload are dropped at once
+    private static final int MAX_RULES = 1024;
+    private static final Object NO_RULE = new Object();
+
+    private final long interval;
+    private final long capacity;
+    private final Map<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+
+    private RateLimiter(double perSecond, double burst) {
+        if(perSecond <= 0) throw new IllegalArgumentException("perSecond must be positive");
+        if(burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        this.interval = Math.max(1, (long)(1_000_000_000d / perSecond));
+        this.capacity = (long)(interval * burst);
+    }
+
+    /**
+     * @param perSecond number of allowed log events per second and rule
+     * @return limiter
+     */
+    public static RateLimiter instance(double perSecond) { return new RateLimiter(perSecond, perSecond); }
+
+    /**
+     * @param perSecond number of allowed log events per second and rule
+     * @param burst number of log events which can be allowed at once
+     * @return limiter
+     */
+    public static RateLimiter instance(double perSecond, double burst) { return new RateLimiter(perSecond, burst); }
+
+    /**
+     * Clears all buckets.
+     * @return this limiter
+     */
+    public RateLimiter reset() {
+        buckets.clear();
+        return this;
+    }
+
+    /**
+     * Number of requests rejected and not yet reported in any logged request.
+     * @return suppressed count
+     */
+    public long suppressed() {
+        long rv = 0;
+        for(Bucket bucket : buckets.values()) rv = rv + bucket.suppressed.get();
+        return rv;
+    }
+
+    /**
+     * Takes token of the rule which matched request. Call it only when 
+     * request is really logged.
+     * @param decision limiter decision of the request
+     * @return -1 if request must not be logged, otherwise number of 
+     *     requests suppressed by the same rule since previous logged one
+     */
+    public long acquire(LimiterDecision decision) {
+        PathConf.Combo rule = ((decision == null) || (decision.match() == null)) ? null : decision.match().rule();
+        Object key = (rule == null) ? NO_RULE : rule;
+        Bucket bucket = buckets.get(key);
+        if(bucket == null) {
+            if(buckets.size() >= MAX_RULES) buckets.clear();
+            bucket = buckets.computeIfAbsent(key, (k) -> new Bucket());
+        }
+        return bucket.acquire(System.nanoTime());
+    }
+
+    /**
+     * Token bucket implemented as theoretical arrival time of next token
+     * (GCRA), so acquire is single CAS without locking.
+     */
+    private class Bucket {
+        private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private long acquire(long now) {
+            for(;;) {
+                long current = tat.get();
+                long base = ((current == Long.MIN_VALUE) || (current - now < 0)) ? now : current;
+                long next = base + interval;
+                if(next - now > capacity) {
+                    suppressed.incrementAndGet();
+                    return -1;
+                }
+                if(tat.compareAndSet(current, next)) return suppressed.getAndSet(0);
+            }
+        }
+    }
+}
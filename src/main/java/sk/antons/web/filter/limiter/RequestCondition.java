@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Additional condition of path rule (see HeaderCondition and QueryCondition).
+ * Rules with conditions other than HeaderCondition and QueryCondition are
+ * not cached by limiter decision cache. Conditions can be combined by 
+ * Conditions and compiled to ConditionPlan.
+ * @author antons
+ */
+public interface RequestCondition {
+
+    /**
+     * Checks condition against request.
+     * @param view request attributes
+     * @return true if condition matches
+     */
+    boolean match(RequestView view);
+
+    /**
+     * Estimated relative cost of evaluation. ConditionPlan evaluates 
+     * cheaper conditions first. Method check costs 1, path matcher 20, 
+     * host (reverse DNS) 50.
+     * @return cost
+     */
+    default int cost() { return 100; }
+}
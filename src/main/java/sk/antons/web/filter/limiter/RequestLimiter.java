@@ -17,6 +17,7 @@ package sk.antons.web.filter.limiter;
 
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.http.HttpServletRequest;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Servlet request limiter implementation. If you implement servlet filter 
@@ -67,17 +68,27 @@ public class RequestLimiter<T> implements Limiter {
     
 	private T parent = null;
     
-    public RequestLimiter(T parent) { this.parent = parent; }
+    public RequestLimiter(T parent) { 
+        this.parent = parent; 
+        listen();
+        this.snapshot = compile();
+    }
     
     public T filter() { return parent; }
 
 
     private Limiter custom = null;
     private PathConf<RequestLimiter<T>> pathconf = new PathConf<RequestLimiter<T>>(this);
-    private StringConf<RequestLimiter<T>> ipconf = new StringConf<RequestLimiter<T>>(this);
-    private StringConf<RequestLimiter<T>> hostconf = new StringConf<RequestLimiter<T>>(this);
-    private StringConf<RequestLimiter<T>> contenttypeconf = new StringConf<RequestLimiter<T>>(this);
+    private IpConf<RequestLimiter<T>> ipconf = new IpConf<RequestLimiter<T>>(this);
+    private HostConf<RequestLimiter<T>> hostconf = new HostConf<RequestLimiter<T>>(this);
+    private ContentTypeConf<RequestLimiter<T>> contenttypeconf = new ContentTypeConf<RequestLimiter<T>>(this);
     private ResponseStatusCheck responseStatusCheck = null;
+    private int cacheSize = 0;
+    private volatile LimiterSnapshot snapshot = null;
+    // guarded by this
+    private boolean updating = false;
+    private final String attribute = RequestLimiter.class.getName() + ".decision." + SEQUENCE.incrementAndGet();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
     
     /**
      * Path mather configuration for limiter.
@@ -86,27 +97,38 @@ public class RequestLimiter<T> implements Limiter {
     public PathConf<RequestLimiter<T>> path() { return pathconf; }
     
     /**
-     * Host name configuration for limiter.
+     * Ip address configuration for limiter. Values can be also cidr 
+     * ranges like 10.0.0.0/8 or 2001:db8::/32.
+     * This will apply for all requests. You can also limit this only for 
+     * concrete path in path() configuration.
+     * @return 
+     */
+    public IpConf<RequestLimiter<T>> ip() { return ipconf; }
+    
+    /**
+     * Host name configuration for limiter. Values can be also patterns 
+     * like *.example.com (see HostConf).
      * This will apply for all requests. You can also limit this only for 
      * concrete path in path() configuration.
      * @return 
      */
-    public StringConf<RequestLimiter<T>> host() { return hostconf; }
+    public HostConf<RequestLimiter<T>> host() { return hostconf; }
     
     /**
-     * Content type configuration for limiter.
+     * Content type configuration for limiter. Media types are compared 
+     * without parameters and can contain wildcards like application/*+json.
      * This will apply for all requests. You can also limit this only for 
      * concrete path in path() configuration.
      * @return 
      */
-    public StringConf<RequestLimiter<T>> contentType() { return contenttypeconf; }
+    public ContentTypeConf<RequestLimiter<T>> contentType() { return contenttypeconf; }
     
     /**
      * You can add your custom limiter implementation.
      * @param limiter
      * @return 
      */
-    public RequestLimiter<T> custom(Limiter limiter) { this.custom = limiter; return this; }
+    public RequestLimiter<T> custom(Limiter limiter) { this.custom = limiter; changed(); return this; }
     
     /**
      * Response status configuration for limiter.
@@ -114,127 +136,156 @@ public class RequestLimiter<T> implements Limiter {
      * concrete path in path() configuration.
      * @return 
      */
-    public RequestLimiter<T> responseStatus(ResponseStatusCheck check) { this.responseStatusCheck = check; return this; }
+    public RequestLimiter<T> responseStatus(ResponseStatusCheck check) { this.responseStatusCheck = check; changed(); return this; }
+    
+    /**
+     * Response status configuration for limiter as status specification 
+     * like "4xx,5xx,!404" (see StatusSpec).
+     * @param spec status specification
+     * @return 
+     */
+    public RequestLimiter<T> responseStatus(String spec) { return responseStatus(StatusSpec.parse(spec)); }
+    
+    /**
+     * Enables cache of allow decisions. Decision of configured rules 
+     * depends only on request attributes used by rules, so it can be 
+     * reused for next requests with same attributes. Cache is cleared 
+     * by each configuration change. Custom limiter is never cached.
+     * @param size max number of cached decisions (0 disables cache)
+     * @return 
+     */
+    public RequestLimiter<T> cache(int size) { 
+        this.cacheSize = size;
+        changed();
+        return this; 
+    }
     
     /**
      * Clears all settings for this limiter.
      * @return 
      */
-    public RequestLimiter<T> reset() { 
+    public synchronized RequestLimiter<T> reset() { 
         pathconf = new PathConf(this);
-        ipconf = new StringConf(this);
-        hostconf = new StringConf(this);
-        contenttypeconf = new StringConf(this);
+        ipconf = new IpConf(this);
+        hostconf = new HostConf(this);
+        contenttypeconf = new ContentTypeConf(this);
+        listen();
+        if(updating) begin();
+        changed();
         return this; 
     }
+    
+    /**
+     * Applies more configuration changes as one change. Requests are checked 
+     * by previous configuration until all changes are done and new 
+     * configuration is compiled. Then new configuration is used atomically.
+     * Each change outside of update() compiles whole configuration, so 
+     * bulk changes (like loading of large lists) should be done here.
+     * <pre>
+     *   filter.limit().update((limit) -> limit.reset().path().include("/foo/**"));
+     * </pre>
+     * @param configuration configuration changes
+     * @return 
+     */
+    public synchronized RequestLimiter<T> update(java.util.function.Consumer<RequestLimiter<T>> configuration) {
+        updating = true;
+        begin();
+        try {
+            configuration.accept(this);
+        } finally {
+            updating = false;
+            end();
+            this.snapshot = compile();
+        }
+        return this;
+    }
+    
+    private void begin() {
+        ipconf.begin();
+        hostconf.begin();
+        contenttypeconf.begin();
+    }
+    
+    private void end() {
+        ipconf.end();
+        hostconf.end();
+        contenttypeconf.end();
+    }
+    
+    private void listen() {
+        pathconf.listener(this::changed);
+        ipconf.listener(this::changed);
+        hostconf.listener(this::changed);
+        contenttypeconf.listener(this::changed);
+    }
+    
+    /**
+     * Compiles and publishes new snapshot after each change (or at the end 
+     * of update). Request threads only read published snapshot.
+     */
+    private synchronized void changed() {
+        if(!updating) snapshot = compile();
+    }
+    
+    private LimiterSnapshot compile() {
+        return new LimiterSnapshot(custom, responseStatusCheck
+            , pathconf, ipconf, hostconf, contenttypeconf, cacheSize);
+    }
 
     @Override
     public boolean allow(ServletRequest request) {
         if(request == null) return false;
-        if((custom != null) && (!custom.allow(request))) return false;
-        if(request instanceof HttpServletRequest) {
-            HttpServletRequest httprequest = (HttpServletRequest)request;
-            String ip = httprequest.getRemoteAddr();
-            String host = httprequest.getRemoteHost();
-            String contenttype = httprequest.getContentType();
-            String path = httprequest.getRequestURI();
-            String method = httprequest.getMethod();
-            if(!pathAllow(pathconf, path, method, ip, host, contenttype)) return false;
+        return decision(request).allowed();
+    }
+    
+    /**
+     * Returns decision for the request. Decision is evaluated only once 
+     * per request and stored as request attribute. Next calls (and also 
+     * response status check after chain) reuse it, if they check the same 
+     * request object in the same dispatch and thread (see RequestView).
+     * @param request request to check
+     * @return decision
+     */
+    public LimiterDecision decision(ServletRequest request) {
+        LimiterDecision cached = cachedDecision(request);
+        if(cached != null) return cached;
+        LimiterSnapshot snapshot = this.snapshot;
+        RequestView view = RequestView.of(request);
+        LimiterDecision decision = null;
+        Limiter custom = snapshot.custom();
+        if((custom != null) && (!custom.allow(request))) {
+            decision = new LimiterDecision(view, false, RuleMatch.DENIED);
+        } else {
+            RuleMatch match = snapshot.match(view);
+            decision = new LimiterDecision(view, match.allowed(), match);
         }
-        String value = request.getContentType();
-        if(!stringAllow(contenttypeconf, value)) return false;
-        value = request.getRemoteAddr();
-        if(!stringAllow(ipconf, value)) return false;
-        value = request.getRemoteHost();
-        if(!stringAllow(ipconf, value)) return false;
-        return true;
+        request.setAttribute(attribute, decision);
+        return decision;
+    }
+
+    private LimiterDecision cachedDecision(ServletRequest request) {
+        Object o = request.getAttribute(attribute);
+        if(!(o instanceof LimiterDecision)) return null;
+        LimiterDecision decision = (LimiterDecision)o;
+        return decision.view().validFor(request) ? decision : null;
     }
 
     @Override
     public boolean allowResponseStatus(ServletRequest request, int status) {
         if(status <= 0) return true;
         if(request == null) return false;
+        LimiterSnapshot snapshot = this.snapshot;
+        Limiter custom = snapshot.custom();
         if((custom != null) && (!custom.allowResponseStatus(request, status))) return false;
         if(request instanceof HttpServletRequest) {
-            HttpServletRequest httprequest = (HttpServletRequest)request;
-            String ip = httprequest.getRemoteAddr();
-            String host = httprequest.getRemoteHost();
-            String contenttype = httprequest.getContentType();
-            String path = httprequest.getRequestURI();
-            String method = httprequest.getMethod();
-            if(!pathAllowResponseStatus(pathconf, path, method, ip, host, contenttype, status)) return false;
+            RuleMatch match = null;
+            LimiterDecision cached = cachedDecision(request);
+            if(cached != null) match = cached.match();
+            if((match == null) || !match.complete()) match = snapshot.matchPath(RequestView.of(request));
+            return match.allowStatus(status, snapshot.responseStatusCheck());
         }
+        ResponseStatusCheck responseStatusCheck = snapshot.responseStatusCheck();
         if(responseStatusCheck != null) return responseStatusCheck.allow(status);
         return true;
     }
-    
-    private static boolean pathAllow(PathConf conf, String path, String method, String ip, String host, String contenttype) {
-        if(conf.includes.isEmpty()) {
-            if(conf.excludes.isEmpty()) {
-                return true;
-            } else {
-                for(Object o : conf.excludes) {
-                    PathConf.Combo matcher = (PathConf.Combo)o;
-                    if(matcher.match(path, method, ip, host, contenttype)) return false;
-                }
-                return true;
-            }
-        } else {
-            boolean rv = false;
-            for(Object o : conf.includes) {
-                PathConf.Combo matcher = (PathConf.Combo)o;
-                if(matcher.match(path, method, ip, host, contenttype)) {
-                    rv = true;
-                    break;
-                }
-            }
-            if(!rv) return false;
-            if(conf.excludes.isEmpty()) {
-                return true;
-            } else {
-                for(Object o : conf.excludes) {
-                    PathConf.Combo matcher = (PathConf.Combo)o;
-                    if(matcher.match(path, method, ip, host, contenttype)) return false;
-                }
-                return true;
-            }
-        }
-    }
-    
-    private static boolean pathAllowResponseStatus(PathConf conf, String path, String method, String ip, String host, String contenttype, int status) {
-        if(conf.includes.isEmpty()) {
-            if(conf.excludes.isEmpty()) {
-                return true;
-            } else {
-                for(Object o : conf.excludes) {
-                    PathConf.Combo matcher = (PathConf.Combo)o;
-                    if(matcher.match(path, method, ip, host, contenttype) && matcher.match(status)) return false;
-                }
-                return true;
-            }
-        } else {
-            boolean rv = false;
-            for(Object o : conf.includes) {
-                PathConf.Combo matcher = (PathConf.Combo)o;
-                if(matcher.match(path, method, ip, host, contenttype) && matcher.match(status)) {
-                    rv = true;
-                    break;
-                }
-            }
-            if(!rv) return false;
-            if(conf.excludes.isEmpty()) {
-                return true;
-            } else {
-                for(Object o : conf.excludes) {
-                    PathConf.Combo matcher = (PathConf.Combo)o;
-                    if(matcher.match(path, method, ip, host, contenttype) && matcher.match(status)) return false;
-                }
-                return true;
-            }
-        }
-    }
-    
-    private static boolean stringAllow(StringConf conf, String value) {
-        return StringConfReader.allow(conf, value);
-    }
 }
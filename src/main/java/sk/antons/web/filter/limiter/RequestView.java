@@ -0,0 +1,272 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import sk.antons.web.filter.util.ServletRequestWrapper;
+
+/**
+ * Lazy view of request attributes used by limiter rules. Attribute is
+ * read from request only when some rule needs it and then it is reused.
+ * So for example remote host (which can cause reverse DNS lookup) is
+ * never read if there is no host rule.
+ *
+ * Instance is stored as request attribute and it is not thread safe. 
+ * It is reused only by the same request object in the same dispatch and 
+ * thread, so forward, include, async dispatch or request wrapper which 
+ * changes path or address get new view.
+ * @author antons
+ */
+public class RequestView {
+
+    /**
+     * Request attribute where view is stored, so all limiters checking 
+     * the same request share read attributes.
+     */
+    public static final String ATTRIBUTE = RequestView.class.getName();
+
+    private static final int PATH = 1;
+    private static final int METHOD = 2;
+    private static final int IP = 4;
+    private static final int HOST = 8;
+    private static final int CONTENTTYPE = 16;
+    private static final int ELEMENTS = 32;
+    private static final int ADDRESS = 64;
+    private static final int MEDIATYPE = 128;
+    private static final int QUERYSTRING = 256;
+    private static final int QUERY = 512;
+
+    private final ServletRequest request;
+    private final ServletRequest origin;
+    private final HttpServletRequest httprequest;
+    private final DispatcherType dispatcherType;
+    private final Thread thread;
+    private int loaded = 0;
+    private String path;
+    private String method;
+    private String ip;
+    private String host;
+    private String contenttype;
+    private String[] elements;
+    private IpAddress address;
+    private MediaType mediatype;
+    private String querystring;
+    private QueryString query;
+    // read headers (normalized interned names)
+    private String[] headerNames = null;
+    private String[] headerValues = null;
+    private int headerCount = 0;
+
+    protected RequestView(ServletRequest request) {
+        this.request = request;
+        this.origin = unwrap(request);
+        this.httprequest = (request instanceof HttpServletRequest) ? (HttpServletRequest)request : null;
+        this.dispatcherType = dispatcherType(request);
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Returns view stored in request or creates and stores new one.
+     * @param request request
+     * @return request view
+     */
+    public static RequestView of(ServletRequest request) { 
+        Object o = request.getAttribute(ATTRIBUTE);
+        if((o instanceof RequestView) && ((RequestView)o).validFor(request)) return (RequestView)o;
+        RequestView view = new RequestView(request);
+        request.setAttribute(ATTRIBUTE, view);
+        return view;
+    }
+
+    /**
+     * Checks if view was created for this request object in current 
+     * dispatch and thread. Wrappers of this library (which don't change 
+     * request attributes) are ignored.
+     * @param request request
+     * @return true if view can be reused for request
+     */
+    public boolean validFor(ServletRequest request) {
+        return ((this.request == request) || (this.origin == unwrap(request))) 
+            && (this.thread == Thread.currentThread()) 
+            && (this.dispatcherType == dispatcherType(request));
+    }
+
+    private static ServletRequest unwrap(ServletRequest request) {
+        while(request instanceof ServletRequestWrapper) request = ((ServletRequestWrapper)request).getRequest();
+        return request;
+    }
+
+    private static DispatcherType dispatcherType(ServletRequest request) {
+        try {
+            return request.getDispatcherType();
+        } catch(UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Underlying request.
+     * @return request
+     */
+    public ServletRequest request() { return request; }
+
+    /**
+     * Underlying request if it is http request.
+     * @return http request or null
+     */
+    public HttpServletRequest httpRequest() { return httprequest; }
+
+    /**
+     * @return true if underlying request is http request.
+     */
+    public boolean isHttp() { return httprequest != null; }
+
+    /**
+     * @return request uri (null for non http requests)
+     */
+    public String path() {
+        if((loaded & PATH) == 0) {
+            path = (httprequest == null) ? null : httprequest.getRequestURI();
+            loaded |= PATH;
+        }
+        return path;
+    }
+
+    /**
+     * @return non empty elements of request uri
+     */
+    public String[] elements() {
+        if((loaded & ELEMENTS) == 0) {
+            elements = PathIndex.split(path());
+            loaded |= ELEMENTS;
+        }
+        return elements;
+    }
+
+    /**
+     * @return http method (null for non http requests)
+     */
+    public String method() {
+        if((loaded & METHOD) == 0) {
+            method = (httprequest == null) ? null : httprequest.getMethod();
+            loaded |= METHOD;
+        }
+        return method;
+    }
+
+    /**
+     * @return remote address
+     */
+    public String ip() {
+        if((loaded & IP) == 0) {
+            ip = request.getRemoteAddr();
+            loaded |= IP;
+        }
+        return ip;
+    }
+
+    /**
+     * @return parsed remote address or null if it is not valid ip address
+     */
+    IpAddress address() {
+        if((loaded & ADDRESS) == 0) {
+            IpAddress a = new IpAddress();
+            address = a.parse(ip()) ? a : null;
+            loaded |= ADDRESS;
+        }
+        return address;
+    }
+
+    /**
+     * @return remote host (it can cause reverse DNS lookup)
+     */
+    public String host() {
+        if((loaded & HOST) == 0) {
+            host = request.getRemoteHost();
+            loaded |= HOST;
+        }
+        return host;
+    }
+
+    /**
+     * @return content type header
+     */
+    public String contentType() {
+        if((loaded & CONTENTTYPE) == 0) {
+            contenttype = request.getContentType();
+            loaded |= CONTENTTYPE;
+        }
+        return contenttype;
+    }
+
+    /**
+     * @return raw query string (null for non http requests)
+     */
+    public String queryString() {
+        if((loaded & QUERYSTRING) == 0) {
+            querystring = (httprequest == null) ? null : httprequest.getQueryString();
+            loaded |= QUERYSTRING;
+        }
+        return querystring;
+    }
+
+    /**
+     * @return tokenized query string
+     */
+    QueryString query() {
+        if((loaded & QUERY) == 0) {
+            query = QueryString.parse(queryString());
+            loaded |= QUERY;
+        }
+        return query;
+    }
+
+    /**
+     * Header value. Each header is read from request only once.
+     * @param name normalized header name (see HeaderCondition.normalize())
+     * @return header value or null
+     */
+    String header(String name) {
+        for(int i = 0; i < headerCount; i++) {
+            if(headerNames[i] == name) return headerValues[i];
+        }
+        String value = (httprequest == null) ? null : httprequest.getHeader(name);
+        if(headerNames == null) {
+            headerNames = new String[4];
+            headerValues = new String[4];
+        } else if(headerCount == headerNames.length) {
+            headerNames = java.util.Arrays.copyOf(headerNames, headerCount * 2);
+            headerValues = java.util.Arrays.copyOf(headerValues, headerCount * 2);
+        }
+        headerNames[headerCount] = name;
+        headerValues[headerCount] = value;
+        headerCount++;
+        return value;
+    }
+
+    /**
+     * @return parsed content type header or null if it is not media type
+     */
+    MediaType mediaType() {
+        if((loaded & MEDIATYPE) == 0) {
+            mediatype = MediaType.of(contentType());
+            loaded |= MEDIATYPE;
+        }
+        return mediatype;
+    }
+}
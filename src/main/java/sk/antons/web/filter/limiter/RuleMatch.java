@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of limiter rules evaluation for one request. It remembers path 
+ * rules which matched request, so response status check only applies 
+ * status predicates of those rules. If all those predicates (and global 
+ * limiter check) are StatusSpec instances, they are folded to one status 
+ * table. Table is folded only at first status check and only if some 
+ * matched rule (or global check) has status check. Instance is immutable 
+ * (table is only cache) and it can be shared by requests with same 
+ * attributes.
+ * @author antons
+ */
+class RuleMatch {
+
+    private static final PathConf.Combo[] EMPTY = new PathConf.Combo[0];
+    private static final long[] UNFOLDED = new long[0];
+
+    /**
+     * Match for requests without path rules (non http requests).
+     */
+    static final RuleMatch ALL = new RuleMatch(true, false, EMPTY, EMPTY, null);
+
+    /**
+     * Match for requests rejected before path rules evaluation. Path 
+     * rules are not collected.
+     */
+    static final RuleMatch DENIED = new RuleMatch(false, false, null, null, null);
+
+    private final boolean allowed;
+    private final boolean hasIncludes;
+    private final PathConf.Combo[] includes;
+    private final PathConf.Combo[] excludes;
+    private final ResponseStatusCheck global;
+    // folded status checks of matched rules and global check (null if some is not StatusSpec)
+    private volatile long[] statuses = UNFOLDED;
+
+    private RuleMatch(boolean allowed, boolean hasIncludes, PathConf.Combo[] includes, PathConf.Combo[] excludes, ResponseStatusCheck global) {
+        this.allowed = allowed;
+        this.hasIncludes = hasIncludes;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.global = global;
+    }
+
+    private long[] statuses() {
+        long[] rv = statuses;
+        if(rv == UNFOLDED) {
+            rv = hasStatusCheck() ? fold(hasIncludes, includes, excludes, global) : null;
+            statuses = rv;
+        }
+        return rv;
+    }
+
+    private boolean hasStatusCheck() {
+        if(includes == null) return false;
+        if(global != null) return true;
+        for(PathConf.Combo combo : includes) {
+            if(combo.responseStatusCheck() != null) return true;
+        }
+        for(PathConf.Combo combo : excludes) {
+            if(combo.responseStatusCheck() != null) return true;
+        }
+        return false;
+    }
+
+    private static long[] fold(boolean hasIncludes, PathConf.Combo[] includes, PathConf.Combo[] excludes, ResponseStatusCheck global) {
+        if(includes == null) return null;
+        long[] rv = StatusSpec.none();
+        if(hasIncludes) {
+            for(PathConf.Combo combo : includes) {
+                long[] table = StatusSpec.table(combo.responseStatusCheck());
+                if(table == null) return null;
+                for(int i = 0; i < rv.length; i++) rv[i] |= table[i];
+            }
+        } else {
+            long[] table = StatusSpec.table(null);
+            for(int i = 0; i < rv.length; i++) rv[i] = table[i];
+        }
+        for(PathConf.Combo combo : excludes) {
+            long[] table = StatusSpec.table(combo.responseStatusCheck());
+            if(table == null) return null;
+            for(int i = 0; i < rv.length; i++) rv[i] &= ~table[i];
+        }
+        long[] table = StatusSpec.table(global);
+        if(table == null) return null;
+        for(int i = 0; i < rv.length; i++) rv[i] &= table[i];
+        return rv;
+    }
+
+    /**
+     * Evaluates path rules and collects matching include and exclude rules.
+     * Collecting stops when result is known: exclude rules are checked first 
+     * and if matching exclude rule has no status check, request and all its 
+     * statuses are denied, so include rules are not collected at all.
+     * @param includeIndex compiled include rules
+     * @param excludeIndex compiled exclude rules
+     * @param view request attributes
+     * @param allowed result of other (non path) checks
+     * @param global global status check of limiter
+     * @return match
+     */
+    static RuleMatch of(PathIndex includeIndex, PathIndex excludeIndex, RequestView view, boolean allowed, ResponseStatusCheck global) {
+        boolean hasIncludes = !includeIndex.isEmpty();
+        PathConf.Combo[] excludes = collect(excludeIndex, view);
+        if(denyAll(excludes)) return new RuleMatch(false, hasIncludes, EMPTY, excludes, global);
+        PathConf.Combo[] includes = collect(includeIndex, view);
+        if(hasIncludes && (includes.length == 0)) allowed = false;
+        if(excludes.length > 0) allowed = false;
+        return new RuleMatch(allowed, hasIncludes, includes, excludes, global);
+    }
+
+    private static PathConf.Combo[] collect(PathIndex index, RequestView view) {
+        if(index.isEmpty()) return EMPTY;
+        List<PathConf.Combo> list = new ArrayList<PathConf.Combo>(2);
+        index.collect(view, list);
+        return list.isEmpty() ? EMPTY : list.toArray(EMPTY);
+    }
+
+    private static boolean denyAll(PathConf.Combo[] excludes) {
+        for(PathConf.Combo combo : excludes) {
+            if(combo.responseStatusCheck() == null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return first matched include rule (null if there is none)
+     */
+    PathConf.Combo rule() {
+        return ((includes == null) || (includes.length == 0)) ? null : includes[0];
+    }
+
+    /**
+     * @return true if matched path rules are collected
+     */
+    boolean complete() { return includes != null; }
+
+    /**
+     * @return true if request is allowed by rules
+     */
+    boolean allowed() { return allowed; }
+
+    /**
+     * Applies status predicates of matched rules and global status check.
+     * Folded table is used if it is available. Without any status check 
+     * matched rules are applied directly (it is cheaper than folding).
+     * @param status response status
+     * @param global global status check of limiter
+     * @return true if status is allowed
+     */
+    boolean allowStatus(int status, ResponseStatusCheck global) {
+        if(status <= 0) return true;
+        if((this.global == global) && (status >= StatusSpec.MIN) && (status <= StatusSpec.MAX)) {
+            long[] statuses = statuses();
+            if(statuses != null) return StatusSpec.test(statuses, status);
+        }
+        if(!allowStatus(status)) return false;
+        if(global != null) return global.allow(status);
+        return true;
+    }
+
+    /**
+     * Applies status predicates of matched rules. Some matched include 
+     * rule must accept status and no matched exclude rule can accept it.
+     * @param status response status
+     * @return true if status is allowed
+     */
+    boolean allowStatus(int status) {
+        if(status <= 0) return true;
+        if(!complete()) return false;
+        if(hasIncludes) {
+            boolean rv = false;
+            for(PathConf.Combo combo : includes) {
+                if(combo.match(status)) {
+                    rv = true;
+                    break;
+                }
+            }
+            if(!rv) return false;
+        }
+        for(PathConf.Combo combo : excludes) {
+            if(combo.match(status)) return false;
+        }
+        return true;
+    }
+}
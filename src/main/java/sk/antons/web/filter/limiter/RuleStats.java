@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+/**
+ * Counts of one path rule taken at the moment of PathConf.stats() call.
+ * <pre>
+ *   for(RuleStats stats : filter.limit().path().stats()) {
+ *       if(stats.unused()) log.info("unused rule {}", stats.rule());
+ *   }
+ * </pre>
+ * @author antons
+ */
+public final class RuleStats {
+
+    private final boolean include;
+    private final String rule;
+    private final long evaluations;
+    private final long matches;
+
+    RuleStats(boolean include, PathConf.Combo combo) {
+        this.include = include;
+        this.rule = combo.toString();
+        this.evaluations = combo.evaluations();
+        this.matches = combo.matches();
+    }
+
+    /**
+     * @return true for include rule, false for exclude rule
+     */
+    public boolean include() { return include; }
+
+    /**
+     * @return rule description (pattern and conditions)
+     */
+    public String rule() { return rule; }
+
+    /**
+     * @return number of requests where rule was evaluated
+     */
+    public long evaluations() { return evaluations; }
+
+    /**
+     * @return number of requests matched by rule
+     */
+    public long matches() { return matches; }
+
+    /**
+     * Rule never matched. Evaluation of request stops at first matching 
+     * rule without status check, so rule which matches only requests 
+     * already decided by such rule tested before it is unused too (and 
+     * with adaptive ordering it depends on current order). So unused rule 
+     * is redundant for requests seen so far, but it is not proven that 
+     * it can't match any request.
+     * @return true if rule never matched
+     */
+    public boolean unused() { return matches == 0; }
+
+    @Override
+    public String toString() {
+        return (include ? "include " : "exclude ") + rule + " evaluations: " + evaluations + " matches: " + matches;
+    }
+}
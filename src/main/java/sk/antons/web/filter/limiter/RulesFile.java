@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads RequestLimiter configuration from properties file and optionally
+ * watches the file and reloads configuration after each change. New
+ * configuration is compiled in watcher thread and replaces the old one
+ * atomically (see RequestLimiter.update()). If file can't be read or parsed
+ * previous configuration is kept.
+ *
+ * File format
+ * <pre>
+ *   # max number of cached decisions
+ *   cache = 1000
+ *   # response status check (see StatusSpec)
+ *   status = 4xx,5xx
+ *   # path rules: pattern [method] [method=..] [ip=..] [host=..] [contenttype=..] [status=..]
+ *   #   [header.NAME=value] [header.NAME=prefix*] [header.NAME=*] (present) [header.NAME=!] (absent)
+ *   #   [query.NAME=..] (query parameter in the same form as header)
+ *   path.include.1 = /foo/** POST status=5xx
+ *   path.include.3 = /debug/** header.X-Debug=*
+ *   path.include.2 = /dummy/** contenttype=application/json
+ *   path.exclude.1 = /foo/bar/** method=PUT ip=127.0.0.1
+ *   # comma separated values
+ *   ip.exclude = 127.0.0.1, 10.0.0.1
+ *   host.include =
+ *   contenttype.include =
+ * </pre>
+ * Path rules are applied in order of their numbers.
+ *
+ * File owns only settings it can contain: path rules, ip, host and content
+ * type values, cache size and status check. Each load replaces them as a
+ * whole. Other settings made in code (ip blocklists, adaptive ordering and
+ * max number of path elements, custom limiter) are kept. Rules which are
+ * the same as before keep their statistics (see PathConf.clear()).
+ * <pre>
+ *   RulesFile rules = RulesFile.instance(Paths.get("/etc/app/log-rules.properties"), filter.limit())
+ *       .load()
+ *       .watch();
+ *   ...
+ *   rules.close();
+ * </pre>
+ * @author antons
+ */
+public class RulesFile implements Closeable {
+
+    private static Logger log = Logger.getLogger(RulesFile.class.getName());
+
+    private final Path file;
+    private final RequestLimiter<?> limiter;
+    private WatchService watcher = null;
+    private Thread thread = null;
+
+    public RulesFile(Path file, RequestLimiter<?> limiter) {
+        if(file == null) throw new IllegalArgumentException("File can't be null");
+        if(limiter == null) throw new IllegalArgumentException("Limiter can't be null");
+        this.file = file.toAbsolutePath();
+        this.limiter = limiter;
+    }
+
+    public static RulesFile instance(Path file, RequestLimiter<?> limiter) { return new RulesFile(file, limiter); }
+
+    /**
+     * Loads file and replaces limiter configuration.
+     * @return this
+     * @throws IOException if file can't be read
+     */
+    public RulesFile load() throws IOException {
+        Properties properties = new Properties();
+        try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        apply(properties, limiter);
+        return this;
+    }
+
+    /**
+     * Starts daemon thread which reloads file after each change.
+     * @return this
+     * @throws IOException if file directory can't be watched
+     */
+    public synchronized RulesFile watch() throws IOException {
+        if(thread != null) return this;
+        watcher = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watcher
+            , StandardWatchEventKinds.ENTRY_CREATE
+            , StandardWatchEventKinds.ENTRY_MODIFY);
+        WatchService service = watcher;
+        thread = new Thread(() -> run(service), "RulesFile-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops watching of the file.
+     */
+    @Override
+    public synchronized void close() {
+        if(watcher != null) {
+            try { watcher.close(); } catch(IOException e) {}
+        }
+        watcher = null;
+        thread = null;
+    }
+
+    private void run(WatchService service) {
+        Path name = file.getFileName();
+        try {
+            for(;;) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(name.equals(event.context())) changed = true;
+                }
+                key.reset();
+                if(!changed) continue;
+                // editors ussualy produce more events for one save
+                Thread.sleep(100);
+                WatchKey next = null;
+                while((next = service.poll()) != null) {
+                    next.pollEvents();
+                    next.reset();
+                }
+                try {
+                    load();
+                    log.fine("Limiter rules reloaded from " + file);
+                } catch(Exception e) {
+                    log.log(Level.WARNING, "Unable to reload limiter rules from " + file, e);
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e) {
+        }
+    }
+
+    /**
+     * Replaces limiter configuration by rules from properties.
+     * @param properties rules
+     * @param limiter limiter to be configured
+     */
+    public static <T> void apply(Properties properties, RequestLimiter<T> limiter) {
+        List<Rule> includes = pathRules(properties, "path.include.");
+        List<Rule> excludes = pathRules(properties, "path.exclude.");
+        String cache = properties.getProperty("cache");
+        int cacheSize = ((cache == null) || cache.trim().isEmpty()) ? 0 : Integer.parseInt(cache.trim());
+        String status = properties.getProperty("status");
+        StatusSpec statusSpec = ((status == null) || status.trim().isEmpty()) ? null : StatusSpec.parse(status);
+        java.util.function.Consumer<RequestLimiter<T>> configuration = (limit) -> {
+            limit.path().clear();
+            limit.ip().clear();
+            limit.host().clear();
+            limit.contentType().clear();
+            limit.cache(cacheSize);
+            limit.responseStatus(statusSpec);
+            for(Rule rule : includes) {
+                limit.path().include(rule.pattern, rule.method, rule.ip, rule.host, rule.contenttype, spec(rule.status), rule.conditions());
+            }
+            for(Rule rule : excludes) {
+                limit.path().exclude(rule.pattern, rule.method, rule.ip, rule.host, rule.contenttype, spec(rule.status), rule.conditions());
+            }
+            for(String value : values(properties, "ip.include")) limit.ip().include(value);
+            for(String value : values(properties, "ip.exclude")) limit.ip().exclude(value);
+            for(String value : values(properties, "host.include")) limit.host().include(value);
+            for(String value : values(properties, "host.exclude")) limit.host().exclude(value);
+            for(String value : values(properties, "contenttype.include")) limit.contentType().include(value);
+            for(String value : values(properties, "contenttype.exclude")) limit.contentType().exclude(value);
+        };
+        // dry run (including compilation), so wrong rule fails before limiter is changed
+        new RequestLimiter<T>(null).update(configuration);
+        limiter.update(configuration);
+    }
+
+    private static StatusSpec spec(String value) {
+        return (value == null) ? null : StatusSpec.parse(value);
+    }
+
+    private static List<String> values(Properties properties, String name) {
+        List<String> list = new ArrayList<String>();
+        String value = properties.getProperty(name);
+        if(value == null) return list;
+        for(String item : value.split(",")) {
+            item = item.trim();
+            if(!item.isEmpty()) list.add(item);
+        }
+        return list;
+    }
+
+    private static List<Rule> pathRules(Properties properties, String prefix) {
+        TreeMap<Integer, Rule> map = new TreeMap<Integer, Rule>();
+        for(String name : properties.stringPropertyNames()) {
+            if(!name.startsWith(prefix)) continue;
+            int order = 0;
+            try {
+                order = Integer.parseInt(name.substring(prefix.length()).trim());
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong rule name " + name);
+            }
+            map.put(order, pathRule(name, properties.getProperty(name)));
+        }
+        return new ArrayList<Rule>(map.values());
+    }
+
+    private static Rule pathRule(String name, String value) {
+        Rule rule = new Rule();
+        String[] tokens = value.trim().split("\\s+");
+        if(tokens[0].isEmpty()) throw new IllegalArgumentException("Missing pattern for " + name);
+        rule.pattern = tokens[0];
+        for(int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            int pos = token.indexOf('=');
+            if(pos < 0) {
+                if(i != 1) throw new IllegalArgumentException("Wrong attribute " + token + " for " + name);
+                rule.method = token;
+                continue;
+            }
+            String key = token.substring(0, pos);
+            String val = token.substring(pos + 1);
+            if("method".equals(key)) rule.method = val;
+            else if("ip".equals(key)) rule.ip = val;
+            else if("host".equals(key)) rule.host = val;
+            else if("contenttype".equals(key)) rule.contenttype = val;
+            else if("status".equals(key)) rule.status = val;
+            else if(key.startsWith("header.") && (key.length() > 7) && !val.isEmpty()) rule.conditions.add(HeaderCondition.parse(key.substring(7), val));
+            else if(key.startsWith("query.") && (key.length() > 6) && !val.isEmpty()) rule.conditions.add(QueryCondition.parse(key.substring(6), val));
+            else throw new IllegalArgumentException("Unknown attribute " + key + " for " + name);
+        }
+        return rule;
+    }
+
+    private static class Rule {
+        private String pattern;
+        private String method;
+        private String ip;
+        private String host;
+        private String contenttype;
+        private String status;
+        private List<RequestCondition> conditions = new ArrayList<RequestCondition>();
+
+        private RequestCondition[] conditions() { return conditions.toArray(new RequestCondition[conditions.size()]); }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Limiter which allows only configured fraction of requests. Decision is
+ * computed from hash of request id (or trace id) header, so all nodes
+ * which see the same request id make the same decision.
+ *
+ * Fraction is taken from tenant configuration (if tenant header is present
+ * and configured), then from first matching path rule and then from default
+ * rate. Requests without any id header are sampled randomly.
+ * <pre>
+ *   filter.limit()
+ *       .custom(SamplingLimiter.instance()
+ *           .rate(0.01)                // 1% of all requests
+ *           .path("/foo/**", 0.5)      // 50% of foo requests
+ *           .tenantHeader("X-Tenant")
+ *           .tenant("acme", 1));       // all requests of acme tenant
+ * </pre>
+ * @author antons
+ */
+public class SamplingLimiter implements Limiter {
+
+    private static final double UNIT = 0x1.0p53;
+
+    private int max = 64;
+    private List<String> headers = new ArrayList<String>(List.of("traceparent", "X-B3-TraceId", "X-Request-ID"));
+    private String tenantHeader = null;
+    private long threshold = threshold(1);
+    private final List<Rule> rules = new CopyOnWriteArrayList<Rule>();
+    private final Map<String, Long> tenants = new ConcurrentHashMap<String, Long>();
+
+    public static SamplingLimiter instance() { return new SamplingLimiter(); }
+
+    /**
+     * Maximal number of path elements used for path matchers created after this call.
+     * @param max maximal number of path element which may occure.
+     * @return this limiter
+     */
+    public SamplingLimiter max(int max) { this.max = max; return this; }
+
+    /**
+     * Headers used as sampling key. First present header is used. Default
+     * headers are traceparent, X-B3-TraceId and X-Request-ID. From traceparent
+     * header only trace id part is used.
+     * @param names header names
+     * @return this limiter
+     */
+    public SamplingLimiter header(String... names) {
+        List<String> list = new ArrayList<String>();
+        if(names != null) {
+            for(String name : names) {
+                if(name != null) list.add(name);
+            }
+        }
+        this.headers = list;
+        return this;
+    }
+
+    /**
+     * Default fraction of allowed requests.
+     * @param rate value from 0 (nothing) to 1 (everything)
+     * @return this limiter
+     */
+    public SamplingLimiter rate(double rate) { this.threshold = threshold(rate); return this; }
+
+    /**
+     * Fraction of allowed requests for path pattern.
+     * @param pattern pattern for path matcher (mandatory)
+     * @param rate value from 0 (nothing) to 1 (everything)
+     * @return this limiter
+     */
+    public SamplingLimiter path(String pattern, double rate) {
+        return path(pattern, null, rate);
+    }
+
+    /**
+     * Fraction of allowed requests for path pattern.
+     * @param pattern pattern for path matcher (mandatory)
+     * @param method method applied together with matcher if is is not null
+     * @param rate value from 0 (nothing) to 1 (everything)
+     * @return this limiter
+     */
+    public SamplingLimiter path(String pattern, String method, double rate) {
+        rules.add(new Rule(PathConf.Combo.instance(pattern, max, method), threshold(rate)));
+        return this;
+    }
+
+    /**
+     * Header which identifies tenant of the request.
+     * @param name header name
+     * @return this limiter
+     */
+    public SamplingLimiter tenantHeader(String name) { this.tenantHeader = name; return this; }
+
+    /**
+     * Fraction of allowed requests for tenant.
+     * @param tenant value of tenant header
+     * @param rate value from 0 (nothing) to 1 (everything)
+     * @return this limiter
+     */
+    public SamplingLimiter tenant(String tenant, double rate) {
+        if(tenant == null) throw new IllegalArgumentException("Tenant can't be null");
+        tenants.put(tenant, threshold(rate));
+        return this;
+    }
+
+    @Override
+    public boolean allow(ServletRequest request) {
+        if(request == null) return false;
+        if(!(request instanceof HttpServletRequest)) return sample(null, threshold);
+        HttpServletRequest httprequest = (HttpServletRequest)request;
+        return sample(key(httprequest), threshold(httprequest));
+    }
+
+    @Override
+    public boolean allowResponseStatus(ServletRequest request, int status) {
+        return true;
+    }
+
+    private long threshold(HttpServletRequest request) {
+        if((tenantHeader != null) && !tenants.isEmpty()) {
+            String tenant = request.getHeader(tenantHeader);
+            if(tenant != null) {
+                Long value = tenants.get(tenant);
+                if(value != null) return value;
+            }
+        }
+        if(!rules.isEmpty()) {
+            String path = request.getRequestURI();
+            String method = request.getMethod();
+            for(Rule rule : rules) {
+                if(rule.combo.match(path, method, null, null, null)) return rule.threshold;
+            }
+        }
+        return threshold;
+    }
+
+    private String key(HttpServletRequest request) {
+        for(String name : headers) {
+            String value = request.getHeader(name);
+            if((value == null) || value.isEmpty()) continue;
+            if("traceparent".equalsIgnoreCase(name)) {
+                // version-traceid-parentid-flags; parent id differs on each hop
+                int start = value.indexOf('-');
+                int end = value.indexOf('-', start + 1);
+                if((start >= 0) && (end > start)) value = value.substring(start + 1, end);
+            }
+            return value;
+        }
+        return null;
+    }
+
+    private static boolean sample(String key, long threshold) {
+        if(threshold <= 0) return false;
+        if(threshold >= (1L << 53)) return true;
+        long value = (key == null) ? ThreadLocalRandom.current().nextLong() : hash(key);
+        return (value >>> 11) < threshold;
+    }
+
+    private static long threshold(double rate) {
+        if(rate <= 0) return 0;
+        if(rate >= 1) return 1L << 53;
+        return (long)(rate * UNIT);
+    }
+
+    /**
+     * FNV-1a followed by murmur3 finalizer to spread bits of short keys.
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    private static class Rule {
+        private final PathConf.Combo combo;
+        private final long threshold;
+
+        private Rule(PathConf.Combo combo, long threshold) {
+            this.combo = combo;
+            this.threshold = threshold;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.Arrays;
+
+/**
+ * Declarative response status check. Specification is comma separated
+ * list of status classes (4xx), single statuses (404) and ranges
+ * (200-204). Items prefixed by ! are excluded. If there is no included
+ * item all statuses are included.
+ * <pre>
+ *   StatusSpec.parse("4xx,5xx,!404")   // errors except not found
+ *   StatusSpec.parse("!2xx")           // everything except success
+ * </pre>
+ * Specification is compiled into bit table of statuses 100-599, so check
+ * is one array lookup. Status checks of limiter and its path rules which
+ * are StatusSpec instances are folded to one table for each request.
+ *
+ * toString() returns normalized specification which can be parsed again
+ * (for example in RulesFile).
+ * @author antons
+ */
+public final class StatusSpec implements ResponseStatusCheck {
+
+    static final int MIN = 100;
+    static final int MAX = 599;
+    private static final int WORDS = (MAX >>> 6) + 1;
+    private static final long[] ALL = table(MIN, MAX);
+
+    private final long[] table;
+
+    private StatusSpec(long[] table) { this.table = table; }
+
+    /**
+     * Parses status specification.
+     * @param spec specification like "4xx,5xx,!404"
+     * @return status check
+     * @throws IllegalArgumentException if specification is not valid
+     */
+    public static StatusSpec parse(String spec) {
+        if(spec == null) throw new IllegalArgumentException("Status spec can't be null");
+        long[] includes = new long[WORDS];
+        long[] excludes = new long[WORDS];
+        boolean included = false;
+        for(String item : spec.split("[,\\s]+")) {
+            if(item.isEmpty()) continue;
+            boolean exclude = item.startsWith("!");
+            String value = exclude ? item.substring(1) : item;
+            int from = 0;
+            int to = 0;
+            int dash = value.indexOf('-');
+            if((value.length() == 3) && value.substring(1).equalsIgnoreCase("xx")) {
+                from = status(value.substring(0, 1) + "00", item);
+                to = from + 99;
+            } else if(dash > 0) {
+                from = status(value.substring(0, dash), item);
+                to = status(value.substring(dash + 1), item);
+                if(to < from) throw new IllegalArgumentException("Wrong status range " + item);
+            } else {
+                from = status(value, item);
+                to = from;
+            }
+            if(exclude) {
+                set(excludes, from, to);
+            } else {
+                set(includes, from, to);
+                included = true;
+            }
+        }
+        long[] table = included ? includes : ALL.clone();
+        for(int i = 0; i < WORDS; i++) table[i] &= ~excludes[i];
+        return new StatusSpec(table);
+    }
+
+    /**
+     * @return check allowing all statuses 100-599
+     */
+    public static StatusSpec all() { return new StatusSpec(ALL.clone()); }
+
+    /**
+     * @param other other spec
+     * @return spec allowing statuses allowed by both specs
+     */
+    public StatusSpec and(StatusSpec other) {
+        long[] rv = table.clone();
+        for(int i = 0; i < WORDS; i++) rv[i] &= other.table[i];
+        return new StatusSpec(rv);
+    }
+
+    /**
+     * @param other other spec
+     * @return spec allowing statuses allowed by any spec
+     */
+    public StatusSpec or(StatusSpec other) {
+        long[] rv = table.clone();
+        for(int i = 0; i < WORDS; i++) rv[i] |= other.table[i];
+        return new StatusSpec(rv);
+    }
+
+    @Override
+    public boolean allow(int status) {
+        return test(table, status);
+    }
+
+    /**
+     * Table of check if it is StatusSpec.
+     * @param check status check
+     * @return table (all statuses for null check) or null for other checks
+     */
+    static long[] table(ResponseStatusCheck check) {
+        if(check == null) return ALL;
+        if(check instanceof StatusSpec) return ((StatusSpec)check).table;
+        return null;
+    }
+
+    /**
+     * @return empty table
+     */
+    static long[] none() { return new long[WORDS]; }
+
+    static boolean test(long[] table, int status) {
+        if((status < MIN) || (status > MAX)) return false;
+        return (table[status >>> 6] & (1L << status)) != 0;
+    }
+
+    private static long[] table(int from, int to) {
+        long[] rv = new long[WORDS];
+        set(rv, from, to);
+        return rv;
+    }
+
+    private static void set(long[] table, int from, int to) {
+        for(int i = from; i <= to; i++) table[i >>> 6] |= (1L << i);
+    }
+
+    private static int status(String value, String item) {
+        int rv = 0;
+        try {
+            rv = Integer.parseInt(value.trim());
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong status " + item);
+        }
+        if((rv < MIN) || (rv > MAX)) throw new IllegalArgumentException("Status out of range " + item);
+        return rv;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof StatusSpec)) return false;
+        return Arrays.equals(table, ((StatusSpec)o).table);
+    }
+
+    @Override
+    public int hashCode() { return Arrays.hashCode(table); }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int status = MIN;
+        while(status <= MAX) {
+            if(!allow(status)) {
+                status++;
+                continue;
+            }
+            int end = status;
+            while((end < MAX) && allow(end + 1)) end++;
+            // whole classes as 4xx
+            while(status <= end) {
+                if(sb.length() > 0) sb.append(',');
+                if((status % 100 == 0) && (end >= status + 99)) {
+                    sb.append(status / 100).append("xx");
+                    status = status + 100;
+                } else {
+                    int stop = end;
+                    if(end - status >= 99) stop = ((status / 100) * 100) + 99;
+                    if(stop == status) sb.append(status);
+                    else sb.append(status).append('-').append(stop);
+                    status = stop + 1;
+                }
+            }
+            status = end + 1;
+        }
+        if(sb.length() == 0) return "!1xx,!2xx,!3xx,!4xx,!5xx";
+        return sb.toString();
+    }
+}
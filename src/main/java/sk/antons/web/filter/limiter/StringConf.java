@@ -15,19 +15,53 @@
  */
 package sk.antons.web.filter.limiter;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
- * String value configuration 
+ * String value configuration. Values are changed under lock of this 
+ * configuration and each change rebuilds immutable compiled form, which 
+ * is read by other threads without locking. Use RequestLimiter.update() 
+ * for bulk changes, compiled form is then rebuilt only once.
+ * 
+ * Values can be also prefix, suffix or contains patterns and they can be 
+ * case insensitive. All patterns are compiled into one automaton, so each 
+ * value is checked in one pass regardless of number of patterns.
+ * <pre>
+ *   conf.include("Mozilla/", StringConf.Mode.PREFIX)
+ *       .exclude("bot", StringConf.Mode.CONTAINS, true);
+ * </pre>
  * @author antons
  */
 public class StringConf<T> {
 
     private T parent = null;
 
-    protected Set<String> includes = new HashSet<String>();
-    protected Set<String> excludes = new HashSet<String>();
+    // guarded by this
+    protected final Set<String> includes = new HashSet<String>();
+    protected final Set<String> excludes = new HashSet<String>();
+    protected final List<Pattern> includePatterns = new ArrayList<Pattern>();
+    protected final List<Pattern> excludePatterns = new ArrayList<Pattern>();
+    private int batch = 0;
+    private boolean dirty = false;
+    private volatile Object compiled = null;
+    private Runnable listener = null;
+    
+    /**
+     * How value is compared with pattern.
+     */
+    public enum Mode {
+        /** whole value is equal to pattern */
+        EXACT,
+        /** value starts with pattern */
+        PREFIX,
+        /** value ends with pattern */
+        SUFFIX,
+        /** value contains pattern */
+        CONTAINS
+    }
     
     public StringConf(T parent) { this.parent = parent; }
     
@@ -43,7 +77,8 @@ public class StringConf<T> {
      * @return this configuration instance
      */
     public StringConf include(String value) { 
-        includes.add(value); 
+        synchronized(this) { includes.add(value); }
+        changed();
         return this;
     }
     
@@ -53,30 +88,181 @@ public class StringConf<T> {
      * @return this configuration instance
      */
     public StringConf exclude(String value) { 
-        excludes.add(value); 
+        synchronized(this) { excludes.add(value); }
+        changed();
         return this;
     }
     
+    /**
+     * Adds allow pattern for configuration attribute.
+     * @param value pattern
+     * @param mode how value is compared with pattern
+     * @return this configuration instance
+     */
+    public StringConf include(String value, Mode mode) { return include(value, mode, false); }
+    
+    /**
+     * Adds allow pattern for configuration attribute.
+     * @param value pattern
+     * @param mode how value is compared with pattern
+     * @param ignoreCase true if pattern is case insensitive
+     * @return this configuration instance
+     */
+    public StringConf include(String value, Mode mode, boolean ignoreCase) { 
+        if((mode == Mode.EXACT) && !ignoreCase) return include(value);
+        Pattern pattern = Pattern.of(value, mode, ignoreCase);
+        synchronized(this) { includePatterns.add(pattern); }
+        changed();
+        return this;
+    }
+    
+    /**
+     * Adds disallow pattern for configuration attribute.
+     * @param value pattern
+     * @param mode how value is compared with pattern
+     * @return this configuration instance
+     */
+    public StringConf exclude(String value, Mode mode) { return exclude(value, mode, false); }
+    
+    /**
+     * Adds disallow pattern for configuration attribute.
+     * @param value pattern
+     * @param mode how value is compared with pattern
+     * @param ignoreCase true if pattern is case insensitive
+     * @return this configuration instance
+     */
+    public StringConf exclude(String value, Mode mode, boolean ignoreCase) { 
+        if((mode == Mode.EXACT) && !ignoreCase) return exclude(value);
+        Pattern pattern = Pattern.of(value, mode, ignoreCase);
+        synchronized(this) { excludePatterns.add(pattern); }
+        changed();
+        return this;
+    }
+    
+    /**
+     * Removes all include and exclude values and patterns.
+     * @return this configuration instance
+     */
+    public StringConf<T> clear() {
+        synchronized(this) {
+            includes.clear();
+            excludes.clear();
+            includePatterns.clear();
+            excludePatterns.clear();
+        }
+        changed();
+        return this;
+    }
+    
+    /**
+     * Creates immutable compiled form of this configuration.
+     * @return matcher
+     */
+    StringMatcher compile() { return (StringMatcher)compiled(); }
+    
+    /**
+     * Compiled form of current configuration. It is built by thread which 
+     * changes configuration, so checks only read volatile field.
+     * @return compiled configuration
+     */
+    final Object compiled() {
+        Object rv = compiled;
+        if(rv == null) {
+            synchronized(this) {
+                rv = compiled;
+                if(rv == null) {
+                    rv = build();
+                    compiled = rv;
+                }
+            }
+        }
+        return rv;
+    }
+    
+    /**
+     * Builds compiled form of configuration. Called with lock of this 
+     * configuration, compiled form must not share mutable values with it.
+     * @return compiled configuration
+     */
+    protected Object build() {
+        return StringMatcher.instance(includes, excludes, includePatterns, excludePatterns);
+    }
+    
+    /**
+     * Notifies listener about configuration change. Compiled form is 
+     * rebuilt before listener is called (or at the end of batch).
+     */
+    protected void changed() {
+        synchronized(this) {
+            if(batch > 0) dirty = true;
+            else compiled = build();
+        }
+        if(listener != null) listener.run();
+    }
+
+    /**
+     * Starts batch of changes. Compiled form is not rebuilt until batch 
+     * ends, checks use previous one.
+     */
+    synchronized void begin() { batch++; }
+
+    /**
+     * Ends batch of changes and rebuilds compiled form if it was changed.
+     */
+    synchronized void end() {
+        if(batch == 0) return;
+        batch--;
+        if((batch == 0) && dirty) {
+            dirty = false;
+            compiled = build();
+        }
+    }
+
+    /**
+     * Sets listener notified about each configuration change.
+     * @param listener change listener
+     */
+    void listener(Runnable listener) { this.listener = listener; }
+
+    /**
+     * Checks if there is no include or exclude value.
+     * @return true if configuration accepts all values
+     */
+    synchronized boolean isEmpty() { 
+        return includes.isEmpty() && excludes.isEmpty() 
+            && includePatterns.isEmpty() && excludePatterns.isEmpty(); 
+    }
+
     /**
      * Implements allow check for defined includes and excludes.
      * @param value value to be checked
      * @return true if value is allowed by defined includes and excludes;
      */
     protected boolean allow(String value) {
-        if(includes.isEmpty()) {
-            if(excludes.isEmpty()) {
-                return true;
-            } else {
-                return !excludes.contains(value);
-            }
-        } else {
-            boolean rv = includes.contains(value);
-            if(!rv) return false;
-            if(excludes.isEmpty()) {
-                return true;
-            } else {
-                return !excludes.contains(value);
-            }
+        return compile().allow(value);
+    }
+    
+    /**
+     * String pattern with compare mode.
+     */
+    static final class Pattern {
+        final String value;
+        final Mode mode;
+        final boolean ignoreCase;
+
+        private Pattern(String value, Mode mode, boolean ignoreCase) {
+            this.value = value;
+            this.mode = mode;
+            this.ignoreCase = ignoreCase;
+        }
+
+        static Pattern of(String value, Mode mode, boolean ignoreCase) {
+            if((value == null) || value.isEmpty()) throw new IllegalArgumentException("Pattern can't be empty");
+            if(mode == null) throw new IllegalArgumentException("Pattern mode can't be null");
+            return new Pattern(value, mode, ignoreCase);
         }
+
+        @Override
+        public String toString() { return mode + (ignoreCase ? " ignorecase " : " ") + value; }
     }
 }
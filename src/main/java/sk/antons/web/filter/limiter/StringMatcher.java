@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable compiled form of StringConf. Exact values are checked in set,
+ * patterns by automaton (see StringPatterns).
+ * @author antons
+ */
+class StringMatcher {
+
+    private final Set<String> includes;
+    private final Set<String> excludes;
+    private final StringPatterns includePatterns;
+    private final StringPatterns excludePatterns;
+    private final boolean included;
+    private final boolean excluded;
+
+    private StringMatcher(Set<String> includes, Set<String> excludes
+            , List<StringConf.Pattern> includePatterns, List<StringConf.Pattern> excludePatterns) {
+        this.includes = new HashSet<String>(includes);
+        this.excludes = new HashSet<String>(excludes);
+        this.includePatterns = StringPatterns.instance(includePatterns);
+        this.excludePatterns = StringPatterns.instance(excludePatterns);
+        this.included = !includes.isEmpty() || !this.includePatterns.isEmpty();
+        this.excluded = !excludes.isEmpty() || !this.excludePatterns.isEmpty();
+    }
+
+    static StringMatcher instance(Set<String> includes, Set<String> excludes
+            , List<StringConf.Pattern> includePatterns, List<StringConf.Pattern> excludePatterns) { 
+        return new StringMatcher(includes, excludes, includePatterns, excludePatterns); 
+    }
+
+    /**
+     * @return true if matcher accepts all values
+     */
+    boolean isEmpty() { return !included && !excluded; }
+
+    /**
+     * Checks value against includes and excludes.
+     * @param value value to be checked
+     * @return true if value is allowed
+     */
+    boolean allow(String value) {
+        if(included && !includes.contains(value) && !includePatterns.match(value)) return false;
+        if(excluded && (excludes.contains(value) || excludePatterns.match(value))) return false;
+        return true;
+    }
+}
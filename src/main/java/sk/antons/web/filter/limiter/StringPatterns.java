@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.limiter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Set of prefix, suffix, contains and exact patterns compiled into
+ * Aho-Corasick automaton. Each pattern found in value knows its start
+ * and end, so anchored modes are checked on found occurrence and all
+ * patterns are checked in one pass over value. Case insensitive patterns
+ * have their own automaton which reads lower case characters in the same
+ * pass.
+ *
+ * If there are only exact and prefix patterns, scan stops after length
+ * of the longest pattern.
+ * @author antons
+ */
+final class StringPatterns {
+
+    private static final StringPatterns EMPTY = new StringPatterns(new ArrayList<StringConf.Pattern>());
+
+    private final Automaton sensitive;
+    private final Automaton insensitive;
+    private final int limit;
+
+    private StringPatterns(Collection<StringConf.Pattern> patterns) {
+        List<StringConf.Pattern> sensitive = new ArrayList<StringConf.Pattern>();
+        List<StringConf.Pattern> insensitive = new ArrayList<StringConf.Pattern>();
+        int limit = 0;
+        for(StringConf.Pattern pattern : patterns) {
+            if(pattern.ignoreCase) insensitive.add(pattern);
+            else sensitive.add(pattern);
+            if((pattern.mode == StringConf.Mode.EXACT) || (pattern.mode == StringConf.Mode.PREFIX)) {
+                limit = Math.max(limit, pattern.value.length());
+            } else {
+                limit = Integer.MAX_VALUE;
+            }
+        }
+        this.sensitive = sensitive.isEmpty() ? null : new Automaton(sensitive);
+        this.insensitive = insensitive.isEmpty() ? null : new Automaton(insensitive);
+        this.limit = limit;
+    }
+
+    static StringPatterns instance(Collection<StringConf.Pattern> patterns) {
+        if(patterns.isEmpty()) return EMPTY;
+        return new StringPatterns(patterns);
+    }
+
+    boolean isEmpty() { return (sensitive == null) && (insensitive == null); }
+
+    /**
+     * Checks if some pattern matches value.
+     * @param value checked value
+     * @return true if some pattern matches
+     */
+    boolean match(String value) {
+        if((value == null) || isEmpty()) return false;
+        int length = value.length();
+        int end = Math.min(length, limit);
+        int s = 0;
+        int i = 0;
+        for(int pos = 0; pos < end; pos++) {
+            char c = value.charAt(pos);
+            if(sensitive != null) {
+                s = sensitive.next(s, c);
+                if(sensitive.accept(s, pos, length)) return true;
+            }
+            if(insensitive != null) {
+                i = insensitive.next(i, lower(c));
+                if(insensitive.accept(i, pos, length)) return true;
+            }
+        }
+        return false;
+    }
+
+    static char lower(char c) {
+        if((c >= 'A') && (c <= 'Z')) return (char)(c + 32);
+        if(c > 127) return Character.toLowerCase(c);
+        return c;
+    }
+
+    private static final class Automaton {
+        // node transitions as sorted keys and targets
+        private char[][] keys;
+        private int[][] targets;
+        private int[] fail;
+        // patterns (own and inherited by fail links) ending in node
+        private int[][] outputs;
+        private final int[] lengths;
+        private final StringConf.Mode[] modes;
+        private int nodes = 1;
+
+        private Automaton(List<StringConf.Pattern> patterns) {
+            int capacity = 1;
+            for(StringConf.Pattern pattern : patterns) capacity += pattern.value.length();
+            keys = new char[capacity][];
+            targets = new int[capacity][];
+            fail = new int[capacity];
+            outputs = new int[capacity][];
+            lengths = new int[patterns.size()];
+            modes = new StringConf.Mode[patterns.size()];
+            for(int p = 0; p < patterns.size(); p++) {
+                StringConf.Pattern pattern = patterns.get(p);
+                lengths[p] = pattern.value.length();
+                modes[p] = pattern.mode;
+                int node = 0;
+                for(int j = 0; j < pattern.value.length(); j++) {
+                    char c = pattern.value.charAt(j);
+                    if(pattern.ignoreCase) c = lower(c);
+                    node = child(node, c);
+                }
+                outputs[node] = append(outputs[node], p);
+            }
+            links();
+            keys = Arrays.copyOf(keys, nodes);
+            targets = Arrays.copyOf(targets, nodes);
+            fail = Arrays.copyOf(fail, nodes);
+            outputs = Arrays.copyOf(outputs, nodes);
+        }
+
+        private int child(int node, char c) {
+            int target = get(node, c);
+            if(target >= 0) return target;
+            char[] k = (keys[node] == null) ? new char[0] : keys[node];
+            int[] t = (targets[node] == null) ? new int[0] : targets[node];
+            int index = -(Arrays.binarySearch(k, c) + 1);
+            char[] nk = new char[k.length + 1];
+            int[] nt = new int[t.length + 1];
+            System.arraycopy(k, 0, nk, 0, index);
+            System.arraycopy(t, 0, nt, 0, index);
+            nk[index] = c;
+            nt[index] = nodes;
+            System.arraycopy(k, index, nk, index + 1, k.length - index);
+            System.arraycopy(t, index, nt, index + 1, t.length - index);
+            keys[node] = nk;
+            targets[node] = nt;
+            return nodes++;
+        }
+
+        private int get(int node, char c) {
+            char[] k = keys[node];
+            if(k == null) return -1;
+            int index = (k.length < 8) ? linear(k, c) : Arrays.binarySearch(k, c);
+            return (index < 0) ? -1 : targets[node][index];
+        }
+
+        private static int linear(char[] k, char c) {
+            for(int i = 0; i < k.length; i++) {
+                if(k[i] == c) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Computes fail links in breadth first order and merges outputs
+         * of fail targets.
+         */
+        private void links() {
+            int[] queue = new int[nodes];
+            int head = 0;
+            int tail = 0;
+            if(targets[0] != null) {
+                for(int t : targets[0]) queue[tail++] = t;
+            }
+            while(head < tail) {
+                int node = queue[head++];
+                if(keys[node] == null) continue;
+                for(int j = 0; j < keys[node].length; j++) {
+                    char c = keys[node][j];
+                    int child = targets[node][j];
+                    int f = fail[node];
+                    while((f != 0) && (get(f, c) < 0)) f = fail[f];
+                    int link = get(f, c);
+                    fail[child] = ((link >= 0) && (link != child)) ? link : 0;
+                    outputs[child] = merge(outputs[child], outputs[fail[child]]);
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        private int next(int node, char c) {
+            for(;;) {
+                int target = get(node, c);
+                if(target >= 0) return target;
+                if(node == 0) return 0;
+                node = fail[node];
+            }
+        }
+
+        private boolean accept(int node, int pos, int length) {
+            int[] out = outputs[node];
+            if(out == null) return false;
+            for(int p : out) {
+                boolean start = (pos + 1 - lengths[p]) == 0;
+                boolean end = (pos + 1) == length;
+                switch(modes[p]) {
+                    case EXACT: if(start && end) return true; break;
+                    case PREFIX: if(start) return true; break;
+                    case SUFFIX: if(end) return true; break;
+                    default: return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] append(int[] array, int value) {
+            if(array == null) return new int[] {value};
+            int[] rv = Arrays.copyOf(array, array.length + 1);
+            rv[array.length] = value;
+            return rv;
+        }
+
+        private static int[] merge(int[] a, int[] b) {
+            if(b == null) return a;
+            if(a == null) return b;
+            int[] rv = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, rv, a.length, b.length);
+            return rv;
+        }
+    }
+}
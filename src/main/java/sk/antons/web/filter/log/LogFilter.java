@@ -36,6 +36,7 @@ import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import sk.antons.json.util.JsonFormat;
+import sk.antons.web.filter.limiter.RateLimiter;
 import sk.antons.web.filter.limiter.RequestLimiter;
 
 /**
@@ -190,12 +191,19 @@ public class LogFilter implements Filter {
     private String requestPrefix = "REQ";
     private String responsePrefix = "RES";
     private boolean logIdentity = false;
+    private RateLimiter rateLimiter = null;
+    private final LogFilterStats stats = new LogFilterStats();
 
     public static LogFilter instance() { return new LogFilter(); }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-        if (consumerStatus.isConsumerOn() && limiter.allow(request)) {
+        stats.requests.increment();
+        long time = System.nanoTime();
+        boolean allow = consumerStatus.isConsumerOn() && limiter.allow(request);
+        stats.limiter.record(System.nanoTime() - time);
+        if (allow) {
+            stats.logged.increment();
             doFilterInternal(wrapRequest(request), wrapResponse(response), chain);
         } else {
             chain.doFilter(request, response);
@@ -213,6 +221,13 @@ public class LogFilter implements Filter {
      * @return 
      */
     public RequestLimiter<LogFilter> limit() { return limiter; }
+
+    /**
+     * Timing of filter processing phases. You can use it to see overhead
+     * of the filter separately from application time.
+     * @return filter statistics
+     */
+    public LogFilterStats stats() { return stats; }
     
     /**
      * Setup consumer of LogFilter messages
@@ -395,6 +410,18 @@ public class LogFilter implements Filter {
         return this; 
     }
 
+    /**
+     * Limits number of logged requests per second for each path rule 
+     * (see RateLimiter). Number of requests which were not logged is 
+     * printed in next logged message as 'suppressed: N'.
+     * @param rateLimiter rate limiter (null for no limit)
+     * @return this
+     */
+    public LogFilter rateLimit(RateLimiter rateLimiter) { 
+        this.rateLimiter = rateLimiter; 
+        return this; 
+    }
+
     private static long requestId = 1;
     protected void doFilterInternal(ServletRequestWrapper request, ServletResponseWrapper response, FilterChain filterChain) throws ServletException, IOException {
         StringBuilder pathbuff = new StringBuilder();
@@ -402,33 +429,60 @@ public class LogFilter implements Filter {
         StringBuilder requestpayloadbuff = new StringBuilder();
         StringBuilder responseheadersbuff = new StringBuilder();
         StringBuilder responsepayloadbuff = new StringBuilder();
+        StringBuilder suppressedbuff = new StringBuilder();
         int status = -1;
         int exceprionStatus = -1;
+        // 1 if request can be logged by rate limiter, -1 if not, 0 if it was not asked yet
+        int rate = 0;
         long id = requestId++;
-        long starttime = System.currentTimeMillis();
+        long starttime = System.nanoTime();
+        long chaintime = 0;
+        long formattime = 0;
+        long consumertime = 0;
         try {
             if (consumerStatus.isConsumerOn()) {
+                long time = System.nanoTime();
                 requestData(request, pathbuff, requestheaderbuff, requestpayloadbuff);
-                if(requestBeforePrefix != null) {
+                long time2 = System.nanoTime();
+                stats.requestCapture.record(time2 - time);
+                if(requestBeforePrefix != null) rate = rate(request, suppressedbuff);
+                if((requestBeforePrefix != null) && (rate > 0)) {
                     StringBuilder sb = new StringBuilder();
                     sb.append(requestBeforePrefix)
                         .append('[').append(id).append(']')
                         .append(pathbuff)
+                        .append(suppressedbuff)
                         .append(" vvv");
-                    consumer.consume(sb.toString());
+                    suppressedbuff.setLength(0);
+                    String message = sb.toString();
+                    time = System.nanoTime();
+                    formattime += time - time2;
+                    consumer.consume(message);
+                    consumertime += System.nanoTime() - time;
                 }
             }
-            filterChain.doFilter(request, response);
+            long time = System.nanoTime();
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                chaintime = System.nanoTime() - time;
+                stats.chain.record(chaintime);
+            }
             if(response instanceof HttpServletResponseWrapper) status = ((HttpServletResponseWrapper)response).getStatus();
         } catch(Throwable t) {
             exceprionStatus = 500;
             if (consumerStatus.isConsumerOn()) {
+                long time = System.nanoTime();
                 StringBuilder sb = new StringBuilder();
                 sb.append(responsePrefix)
                     .append('[').append(id).append(']')
                     .append(" ServletException ")
                     .append(pathbuff).append(' ').append(t);
-                consumer.consume(sb.toString());
+                String message = sb.toString();
+                long time2 = System.nanoTime();
+                formattime += time2 - time;
+                consumer.consume(message);
+                consumertime += System.nanoTime() - time2;
             }
             if(t instanceof IOException) throw (IOException)t;
             else if(t instanceof ServletException) throw (ServletException)t;
@@ -436,18 +490,31 @@ public class LogFilter implements Filter {
         } finally {
             if (consumerStatus.isConsumerOn()) {
                 if(exceprionStatus > 0) status = exceprionStatus;
-                if((status <= 0) || (limiter.allowResponseStatus(request, status))) {
+                boolean logged = (status <= 0) || limiter.allowResponseStatus(request, status);
+                if(logged && (rate == 0) && ((requestPrefix != null) || (responsePrefix != null))) {
+                    rate = rate(request, suppressedbuff);
+                }
+                if(logged && (rate > 0)) {
+                    long time = System.nanoTime();
                     responseData(response, responseheadersbuff, responsepayloadbuff);
-                    long endtime = System.currentTimeMillis();
-                    long time = (endtime - starttime);
+                    long endtime = System.nanoTime();
+                    stats.responseCapture.record(endtime - time);
+                    long duration = (endtime - starttime) / 1_000_000;
                     if(requestPrefix != null) {
                         StringBuilder sb = new StringBuilder();
                         sb.append(requestPrefix)
                             .append('[').append(id).append(']')
                             .append(pathbuff)
+                            .append(suppressedbuff)
                             .append(requestheaderbuff)
                             .append(requestpayloadbuff);
-                        consumer.consume(sb.toString());
+                        suppressedbuff.setLength(0);
+                        String message = sb.toString();
+                        time = System.nanoTime();
+                        formattime += time - endtime;
+                        consumer.consume(message);
+                        endtime = System.nanoTime();
+                        consumertime += endtime - time;
                     }
                     if(responsePrefix != null) {
                         StringBuilder sb = new StringBuilder();
@@ -455,16 +522,38 @@ public class LogFilter implements Filter {
                             .append('[').append(id).append(']')
                             .append(pathbuff);
                         sb.append(" status: ").append(status);
-                        sb.append(" time: ").append(time)
+                        sb.append(" time: ").append(duration)
+                            .append(suppressedbuff)
                             .append(responseheadersbuff)
                             .append(responsepayloadbuff);
-                        consumer.consume(sb.toString());
+                        String message = sb.toString();
+                        time = System.nanoTime();
+                        formattime += time - endtime;
+                        consumer.consume(message);
+                        consumertime += System.nanoTime() - time;
                     }
                 }
             }
+            stats.format.record(formattime);
+            stats.consumer.record(consumertime);
+            stats.overhead.record(System.nanoTime() - starttime - chaintime);
         }
         
     }
+    /**
+     * Takes rate limiter token for request, when its first line is really 
+     * logged. Number of requests suppressed before this one is appended.
+     * @return 1 if request can be logged, -1 otherwise
+     */
+    private int rate(ServletRequest request, StringBuilder sb) {
+        RateLimiter rateLimiter = this.rateLimiter;
+        if(rateLimiter == null) return 1;
+        long suppressed = rateLimiter.acquire(limiter.decision(request));
+        if(suppressed < 0) return -1;
+        if(suppressed > 0) sb.append(" suppressed: ").append(suppressed);
+        return 1;
+    }
+
     private static ServletRequestWrapper wrapRequest(ServletRequest request) {
         if (request instanceof ServletRequestWrapper) {
             return (ServletRequestWrapper) request;
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.log;
+
+import java.util.concurrent.atomic.LongAdder;
+import sk.antons.web.filter.metrics.Histogram;
+
+/**
+ * Timing of LogFilter processing phases. All histograms are in nanoseconds.
+ * Overhead is whole filter time without chain execution, so it is time
+ * spent in filter itself.
+ * @author antons
+ */
+public class LogFilterStats {
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder logged = new LongAdder();
+    final Histogram limiter = Histogram.instance();
+    final Histogram requestCapture = Histogram.instance();
+    final Histogram chain = Histogram.instance();
+    final Histogram responseCapture = Histogram.instance();
+    final Histogram format = Histogram.instance();
+    final Histogram consumer = Histogram.instance();
+    final Histogram overhead = Histogram.instance();
+
+    /**
+     * Number of all requests processed by filter.
+     * @return request count
+     */
+    public long requests() { return requests.sum(); }
+
+    /**
+     * Number of requests allowed by limiter and consumer status.
+     * @return logged request count
+     */
+    public long logged() { return logged.sum(); }
+
+    /**
+     * Time of limiter and consumer status check.
+     * @return histogram
+     */
+    public Histogram limiter() { return limiter; }
+
+    /**
+     * Time of reading and formatting request data.
+     * @return histogram
+     */
+    public Histogram requestCapture() { return requestCapture; }
+
+    /**
+     * Time of filter chain execution (application time).
+     * @return histogram
+     */
+    public Histogram chain() { return chain; }
+
+    /**
+     * Time of reading and formatting response data.
+     * @return histogram
+     */
+    public Histogram responseCapture() { return responseCapture; }
+
+    /**
+     * Time of building log messages.
+     * @return histogram
+     */
+    public Histogram format() { return format; }
+
+    /**
+     * Time spent in consumer.
+     * @return histogram
+     */
+    public Histogram consumer() { return consumer; }
+
+    /**
+     * Whole time of logged request processing without chain time.
+     * @return histogram
+     */
+    public Histogram overhead() { return overhead; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests: ").append(requests())
+            .append(" logged: ").append(logged())
+            .append("\n limiter: ").append(limiter.snapshot())
+            .append("\n requestCapture: ").append(requestCapture.snapshot())
+            .append("\n chain: ").append(chain.snapshot())
+            .append("\n responseCapture: ").append(responseCapture.snapshot())
+            .append("\n format: ").append(format.snapshot())
+            .append("\n consumer: ").append(consumer.snapshot())
+            .append("\n overhead: ").append(overhead.snapshot());
+        return sb.toString();
+    }
+}
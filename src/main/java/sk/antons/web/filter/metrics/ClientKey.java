@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.security.Principal;
+
+/**
+ * Identifies client of the request.
+ * @author antons
+ */
+public interface ClientKey {
+
+    /**
+     * Returns client identification.
+     * @param request request to identify
+     * @return client key or null if client is not identified
+     */
+    String key(HttpServletRequest request);
+
+    /**
+     * Client identified by remote address.
+     * @return key
+     */
+    static ClientKey remoteAddr() {
+        return (request) -> request.getRemoteAddr();
+    }
+
+    /**
+     * All requests share one key (for example one rate limit for whole route).
+     * @return key
+     */
+    static ClientKey all() {
+        return (request) -> "";
+    }
+
+    /**
+     * Client identified by principal name.
+     * @return key
+     */
+    static ClientKey principal() {
+        return (request) -> {
+            Principal user = request.getUserPrincipal();
+            return user == null ? null : user.getName();
+        };
+    }
+
+    /**
+     * Client identified by value of request header.
+     * @param name header name
+     * @return key
+     */
+    static ClientKey header(String name) {
+        if(name == null) throw new IllegalArgumentException("Header name can't be null");
+        return (request) -> request.getHeader(name);
+    }
+}
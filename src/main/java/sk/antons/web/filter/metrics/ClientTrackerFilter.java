@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+import sk.antons.web.filter.util.CountingHttpServletRequest;
+import sk.antons.web.filter.util.CountingHttpServletResponse;
+
+/**
+ * ClientTrackerFilter tracks clients with highest number of requests
+ * using fixed memory SpaceSaving sketch. Client is identified by remote
+ * address by default, or by principal name or request header.
+ * <pre>
+ *   ClientTrackerFilter tracker = ClientTrackerFilter.instance(1000)
+ *       .key(ClientKey.remoteAddr());
+ *   ...
+ *   for(SpaceSaving.Entry client : tracker.top(10)) {
+ *       if(client.count() - client.error() > 10000) logFilter.limit().ip().exclude(client.key());
+ *   }
+ * </pre>
+ * @author antons
+ */
+public class ClientTrackerFilter implements Filter {
+
+    private final RequestLimiter<ClientTrackerFilter> limiter = new RequestLimiter<ClientTrackerFilter>(this);
+    private final SpaceSaving sketch;
+    private ClientKey key = ClientKey.remoteAddr();
+    private boolean countBytes = false;
+
+    public ClientTrackerFilter(int capacity) { this.sketch = SpaceSaving.instance(capacity); }
+
+    /**
+     * Creates filter
+     * @param capacity number of tracked clients
+     * @return filter
+     */
+    public static ClientTrackerFilter instance(int capacity) { return new ClientTrackerFilter(capacity); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<ClientTrackerFilter> limit() { return limiter; }
+
+    /**
+     * Client identification.
+     * @param key client key provider (default remote address)
+     * @return this
+     */
+    public ClientTrackerFilter key(ClientKey key) {
+        if(key == null) throw new IllegalArgumentException("ClientKey can't be null");
+        this.key = key;
+        return this;
+    }
+
+    /**
+     * Configure counting of request and response content size. It requires
+     * wrapping of request and response streams.
+     * @param value true if sizes should be counted (default false)
+     * @return this
+     */
+    public ClientTrackerFilter countBytes(boolean value) { this.countBytes = value; return this; }
+
+    /**
+     * Clients with highest number of requests.
+     * @param n max number of clients
+     * @return clients sorted by request count
+     */
+    public List<SpaceSaving.Entry> top(int n) { return sketch.top(n); }
+
+    /**
+     * Clears all tracked clients.
+     * @return this
+     */
+    public ClientTrackerFilter reset() { sketch.reset(); return this; }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        String client = key.key(request);
+        if(client == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if(!countBytes) {
+            sketch.record(client, 0);
+            chain.doFilter(request, response);
+            return;
+        }
+        CountingHttpServletRequest countingRequest = CountingHttpServletRequest.instance(request);
+        CountingHttpServletResponse countingResponse = CountingHttpServletResponse.instance(response);
+        try {
+            chain.doFilter(countingRequest, countingResponse);
+        } finally {
+            sketch.record(client, countingRequest.count() + countingResponse.count());
+        }
+    }
+
+}
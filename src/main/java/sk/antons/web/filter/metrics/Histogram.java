@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative long values (ussually nanoseconds).
+ * Values are stored in log-linear buckets (32 buckets for each power of two)
+ * so relative error of reported percentiles is about 3% for whole long range.
+ * Recording is never blocked by snapshot creation.
+ * @author antons
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int SIZE = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public static Histogram instance() { return new Histogram(); }
+
+    /**
+     * Records one value. Negative values are recorded as 0.
+     * @param value value to record
+     */
+    public void record(long value) {
+        if(value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Creates snapshot of current state. Recording continues during creation.
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        long[] data = new long[SIZE];
+        long count = 0;
+        for(int i = 0; i < SIZE; i++) {
+            long value = counts.get(i);
+            data[i] = value;
+            count = count + value;
+        }
+        return new Snapshot(data, count, sum.sum(), count == 0 ? 0 : min.get(), max.get());
+    }
+
+    static int index(long value) {
+        if(value < (SUB << 1)) return (int)value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        return (shift * SUB) + (int)(value >>> shift);
+    }
+
+    static long lowest(int index) {
+        if(index < (SUB << 1)) return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        long top = (index & (SUB - 1)) | SUB;
+        return top << shift;
+    }
+
+    static long highest(int index) {
+        if(index < (SUB << 1)) return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        return lowest(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable histogram state.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long count() { return count; }
+        public long sum() { return sum; }
+        public long min() { return min; }
+        public long max() { return max; }
+        public double mean() { return count == 0 ? 0 : ((double)sum) / count; }
+
+        /**
+         * Value at given percentile.
+         * @param percentile value from 0 to 100
+         * @return value (with bucket precision) or 0 if histogram is empty
+         */
+        public long percentile(double percentile) {
+            if(count == 0) return 0;
+            long rank = (long)Math.ceil((percentile / 100d) * count);
+            if(rank < 1) rank = 1;
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++) {
+                seen = seen + counts[i];
+                if(seen >= rank) {
+                    long value = lowest(i) + ((highest(i) - lowest(i)) >>> 1);
+                    return Math.max(min, Math.min(max, value));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("count: ").append(count)
+                .append(" min: ").append(min)
+                .append(" mean: ").append((long)mean())
+                .append(" p50: ").append(percentile(50))
+                .append(" p90: ").append(percentile(90))
+                .append(" p99: ").append(percentile(99))
+                .append(" max: ").append(max);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import sk.antons.web.filter.limiter.RequestLimiter;
+import sk.antons.web.filter.util.CountingHttpServletRequest;
+import sk.antons.web.filter.util.CountingHttpServletResponse;
+
+/**
+ * MetricsFilter collects per route latency histograms, response status
+ * class counts and request and response sizes.
+ *
+ * Routes are defined by RequestLimiter configuration. Request belongs to
+ * first route which limiter allows it. Requests which belongs to no route
+ * are recorded in 'other' route. Requests not allowed by filter limiter
+ * are not recorded at all.
+ *
+ * Async request is recorded when async processing completes (or fails or
+ * times out with status 500), so latency and status include async part.
+ * Async dispatches of such request are not recorded again.
+ * <pre>
+ *   MetricsFilter filter = MetricsFilter.instance();
+ *   filter.route("orders")
+ *       .path()
+ *           .include("/orders/**");
+ *   filter.route("reports")
+ *       .path()
+ *           .include("/reports/**", "GET");
+ *   ...
+ *   for(RouteMetrics.Snapshot route : filter.snapshot().values()) {
+ *       log.info("{} p99: {}", route.name(), route.latency().percentile(99));
+ *   }
+ * </pre>
+ * @author antons
+ */
+public class MetricsFilter implements Filter {
+
+    private final RequestLimiter<MetricsFilter> limiter = new RequestLimiter<MetricsFilter>(this);
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private RouteMetrics other = RouteMetrics.instance("other");
+    private boolean countBytes = true;
+
+    public static MetricsFilter instance() { return new MetricsFilter(); }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if((request instanceof HttpServletRequest)
+            && (response instanceof HttpServletResponse)
+            && limiter.allow(request)) {
+            doFilterInternal((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig fc) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+
+    /**
+     * Configure filter processing limitations.
+     * @return
+     */
+    public RequestLimiter<MetricsFilter> limit() { return limiter; }
+
+    /**
+     * Adds new route. Returned limiter defines which requests belongs
+     * to the route. Routes are checked in order of definition.
+     * @param name name of the route (unique, also different from other route)
+     * @return route limiter configuration
+     */
+    public synchronized RequestLimiter<MetricsFilter> route(String name) {
+        if(name == null) throw new IllegalArgumentException("Route name can't be null");
+        if(exists(name)) throw new IllegalArgumentException("Route " + name + " already exists");
+        Route route = new Route(new RequestLimiter<MetricsFilter>(this), RouteMetrics.instance(name));
+        routes.add(route);
+        return route.limiter;
+    }
+
+    /**
+     * Name of route for requests which belongs to no route.
+     * @param name name of the route (default 'other')
+     * @return this
+     */
+    public synchronized MetricsFilter otherRoute(String name) {
+        if(name == null) throw new IllegalArgumentException("Route name can't be null");
+        if(!other.name().equals(name) && exists(name)) throw new IllegalArgumentException("Route " + name + " already exists");
+        this.other = RouteMetrics.instance(name);
+        return this;
+    }
+
+    private boolean exists(String name) {
+        if(other.name().equals(name)) return true;
+        for(Route route : routes) {
+            if(route.metrics.name().equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Configure counting of request and response content size. It requires
+     * wrapping of request and response streams.
+     * @param value true if sizes should be counted (default true)
+     * @return this
+     */
+    public MetricsFilter countBytes(boolean value) { this.countBytes = value; return this; }
+
+    /**
+     * Snapshot of all routes. Recording continues during creation.
+     * @return route snapshots by route name
+     */
+    public Map<String, RouteMetrics.Snapshot> snapshot() {
+        Map<String, RouteMetrics.Snapshot> map = new LinkedHashMap<String, RouteMetrics.Snapshot>();
+        for(Route route : routes) map.put(route.metrics.name(), route.metrics.snapshot());
+        map.put(other.name(), other.snapshot());
+        return map;
+    }
+
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if(request.getDispatcherType() == DispatcherType.ASYNC) {
+            chain.doFilter(request, response);
+            return;
+        }
+        RouteMetrics metrics = other;
+        for(Route route : routes) {
+            if(route.limiter.allow(request)) {
+                metrics = route.metrics;
+                break;
+            }
+        }
+        CountingHttpServletRequest countingRequest = null;
+        CountingHttpServletResponse countingResponse = null;
+        if(countBytes) {
+            countingRequest = CountingHttpServletRequest.instance(request);
+            countingResponse = CountingHttpServletResponse.instance(response);
+            request = countingRequest;
+            response = countingResponse;
+        }
+        Record record = new Record(metrics, response, request.getContentLengthLong()
+            , countingRequest, countingResponse, System.nanoTime());
+        boolean failed = false;
+        try {
+            chain.doFilter(request, response);
+        } catch(IOException | ServletException | RuntimeException | Error e) {
+            failed = true;
+            throw e;
+        } finally {
+            if(failed) record.run(500);
+            else if(!record.async(request)) record.run(response.getStatus());
+        }
+    }
+
+    /**
+     * Records one request exactly once - at the end of the chain or at 
+     * the end of async processing.
+     */
+    private static class Record implements AsyncListener {
+        private final RouteMetrics metrics;
+        private final HttpServletResponse response;
+        private final long contentLength;
+        private final CountingHttpServletRequest countingRequest;
+        private final CountingHttpServletResponse countingResponse;
+        private final long starttime;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        private Record(RouteMetrics metrics, HttpServletResponse response, long contentLength
+                , CountingHttpServletRequest countingRequest, CountingHttpServletResponse countingResponse, long starttime) {
+            this.metrics = metrics;
+            this.response = response;
+            this.contentLength = contentLength;
+            this.countingRequest = countingRequest;
+            this.countingResponse = countingResponse;
+            this.starttime = starttime;
+        }
+
+        /**
+         * Registers this as listener if request started async processing.
+         * @return true if request is recorded by listener
+         */
+        private boolean async(HttpServletRequest request) {
+            try {
+                if(!request.isAsyncStarted()) return false;
+                request.getAsyncContext().addListener(this);
+                return true;
+            } catch(IllegalStateException e) {
+                // async processing is already completed
+                return false;
+            }
+        }
+
+        private void run(int status) {
+            if(!recorded.compareAndSet(false, true)) return;
+            long time = System.nanoTime() - starttime;
+            metrics.record(time, status
+                , countingRequest == null ? contentLength : countingRequest.count()
+                , countingResponse == null ? 0 : countingResponse.count());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) { run(response.getStatus()); }
+
+        @Override
+        public void onTimeout(AsyncEvent event) { run(500); }
+
+        @Override
+        public void onError(AsyncEvent event) { run(500); }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // async processing started again, listener must be added again
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static class Route {
+        private final RequestLimiter<MetricsFilter> limiter;
+        private final RouteMetrics metrics;
+
+        private Route(RequestLimiter<MetricsFilter> limiter, RouteMetrics metrics) {
+            this.limiter = limiter;
+            this.metrics = metrics;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one route. Latency histogram (nanoseconds), counts of
+ * response status classes and request and response content sizes.
+ * @author antons
+ */
+public class RouteMetrics {
+
+    private final String name;
+    private final Histogram latency = Histogram.instance();
+    private final LongAdder[] statuses = new LongAdder[6];
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+
+    public RouteMetrics(String name) {
+        this.name = name;
+        for(int i = 0; i < statuses.length; i++) statuses[i] = new LongAdder();
+    }
+
+    public static RouteMetrics instance(String name) { return new RouteMetrics(name); }
+
+    public String name() { return name; }
+
+    /**
+     * Records one processed request.
+     * @param nanos processing time in nanoseconds
+     * @param status response status
+     * @param requestSize number of request bytes
+     * @param responseSize number of response bytes
+     */
+    public void record(long nanos, int status, long requestSize, long responseSize) {
+        latency.record(nanos);
+        int statusClass = status / 100;
+        if((statusClass < 1) || (statusClass > 5)) statusClass = 0;
+        statuses[statusClass].increment();
+        if(requestSize > 0) requestBytes.add(requestSize);
+        if(responseSize > 0) responseBytes.add(responseSize);
+    }
+
+    /**
+     * Creates snapshot of current state. Recording continues during creation.
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[statuses.length];
+        for(int i = 0; i < counts.length; i++) counts[i] = statuses[i].sum();
+        return new Snapshot(name, latency.snapshot(), counts, requestBytes.sum(), responseBytes.sum());
+    }
+
+    /**
+     * Immutable route metrics state.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final Histogram.Snapshot latency;
+        private final long[] statuses;
+        private final long requestBytes;
+        private final long responseBytes;
+
+        private Snapshot(String name, Histogram.Snapshot latency, long[] statuses, long requestBytes, long responseBytes) {
+            this.name = name;
+            this.latency = latency;
+            this.statuses = statuses;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+        }
+
+        public String name() { return name; }
+        public Histogram.Snapshot latency() { return latency; }
+        public long requests() { return latency.count(); }
+        public long requestBytes() { return requestBytes; }
+        public long responseBytes() { return responseBytes; }
+
+        /**
+         * Number of responses with given status class.
+         * @param statusClass 1 for 1xx, 2 for 2xx ... 5 for 5xx and 0 for others
+         * @return response count
+         */
+        public long statusClass(int statusClass) {
+            if((statusClass < 0) || (statusClass >= statuses.length)) return 0;
+            return statuses[statusClass];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(name)
+                .append(" requests: ").append(requests())
+                .append(" 2xx: ").append(statuses[2])
+                .append(" 3xx: ").append(statuses[3])
+                .append(" 4xx: ").append(statuses[4])
+                .append(" 5xx: ").append(statuses[5])
+                .append(" in: ").append(requestBytes)
+                .append(" out: ").append(responseBytes)
+                .append(" latency(").append(latency).append(')');
+            return sb.toString();
+        }
+    }
+}
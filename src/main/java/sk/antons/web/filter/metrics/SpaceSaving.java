@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed memory top-K tracker (Space-Saving algorithm). It tracks at most
+ * capacity keys. When new key comes and tracker is full, key with lowest
+ * count is replaced and new key inherits its count as possible error. So
+ * reported count is never lower than real count and it is higher at most
+ * by reported error.
+ *
+ * Keys are partitioned by hash into independent stripes to lower lock
+ * contention.
+ * @author antons
+ */
+public class SpaceSaving {
+
+    private final Stripe[] stripes;
+
+    /**
+     * Creates tracker.
+     * @param capacity number of tracked keys
+     * @param stripes number of independently locked partitions
+     */
+    public SpaceSaving(int capacity, int stripes) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        if(stripes < 1) stripes = 1;
+        if(stripes > capacity) stripes = capacity;
+        this.stripes = new Stripe[stripes];
+        for(int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe((capacity / stripes) + ((i < (capacity % stripes)) ? 1 : 0));
+        }
+    }
+
+    public static SpaceSaving instance(int capacity) { return new SpaceSaving(capacity, Math.min(16, capacity)); }
+    public static SpaceSaving instance(int capacity, int stripes) { return new SpaceSaving(capacity, stripes); }
+
+    /**
+     * Records one occurrence of the key.
+     * @param key key (null is ignored)
+     * @param bytes size of data related to this occurrence
+     */
+    public void record(String key, long bytes) {
+        if(key == null) return;
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        stripes[(hash & 0x7fffffff) % stripes.length].record(key, bytes);
+    }
+
+    /**
+     * Returns keys with highest count.
+     * @param n max number of returned keys
+     * @return entries sorted by count descending
+     */
+    public List<Entry> top(int n) {
+        List<Entry> list = new ArrayList<Entry>();
+        for(Stripe stripe : stripes) stripe.entries(list);
+        list.sort((a, b) -> Long.compare(b.count, a.count));
+        if(list.size() > n) return new ArrayList<Entry>(list.subList(0, Math.max(0, n)));
+        return list;
+    }
+
+    /**
+     * Clears all tracked keys.
+     */
+    public void reset() {
+        for(Stripe stripe : stripes) stripe.reset();
+    }
+
+    /**
+     * Tracked key state.
+     */
+    public static class Entry {
+        private final String key;
+        private final long count;
+        private final long error;
+        private final long bytes;
+
+        private Entry(String key, long count, long error, long bytes) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.bytes = bytes;
+        }
+
+        public String key() { return key; }
+        /**
+         * Estimated count (never lower than real count).
+         * @return count
+         */
+        public long count() { return count; }
+        /**
+         * Maximal overestimation of count.
+         * @return error
+         */
+        public long error() { return error; }
+        /**
+         * Sum of bytes since key is tracked.
+         * @return bytes
+         */
+        public long bytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            return key + " count: " + count + " error: " + error + " bytes: " + bytes;
+        }
+    }
+
+    private static class Counter {
+        private String key;
+        private long count;
+        private long error;
+        private long bytes;
+        private int index;
+    }
+
+    /**
+     * Keys in hash map and min heap ordered by count.
+     */
+    private static class Stripe {
+        private final Counter[] heap;
+        private final Map<String, Counter> map;
+        private int size = 0;
+
+        private Stripe(int capacity) {
+            this.heap = new Counter[capacity];
+            this.map = new HashMap<String, Counter>(capacity * 2);
+        }
+
+        private synchronized void record(String key, long bytes) {
+            Counter counter = map.get(key);
+            boolean added = false;
+            if(counter == null) {
+                if(size < heap.length) {
+                    counter = new Counter();
+                    counter.index = size;
+                    heap[size++] = counter;
+                    added = true;
+                } else {
+                    counter = heap[0];
+                    map.remove(counter.key);
+                    counter.error = counter.count;
+                    counter.bytes = 0;
+                }
+                counter.key = key;
+                map.put(key, counter);
+            }
+            counter.count++;
+            if(bytes > 0) counter.bytes += bytes;
+            // new leaf can have lower count than its parent, others only grow
+            if(added) up(counter.index);
+            else down(counter.index);
+        }
+
+        private synchronized void entries(List<Entry> list) {
+            for(int i = 0; i < size; i++) {
+                Counter c = heap[i];
+                list.add(new Entry(c.key, c.count, c.error, c.bytes));
+            }
+        }
+
+        private synchronized void reset() {
+            for(int i = 0; i < size; i++) heap[i] = null;
+            map.clear();
+            size = 0;
+        }
+
+        private void up(int index) {
+            Counter counter = heap[index];
+            while(index > 0) {
+                int parent = (index - 1) >> 1;
+                if(heap[parent].count <= counter.count) break;
+                heap[index] = heap[parent];
+                heap[index].index = index;
+                index = parent;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+
+        private void down(int index) {
+            Counter counter = heap[index];
+            for(;;) {
+                int child = (index << 1) + 1;
+                if(child >= size) break;
+                if((child + 1 < size) && (heap[child + 1].count < heap[child].count)) child++;
+                if(heap[child].count >= counter.count) break;
+                heap[index] = heap[child];
+                heap[index].index = index;
+                index = child;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+    }
+}
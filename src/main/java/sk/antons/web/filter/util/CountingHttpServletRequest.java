@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Lightweight request wrapper which only counts bytes read from request 
+ * input stream (also through reader). Content is not stored. If body is 
+ * not read through this wrapper (like form parameters parsed by container)
+ * content length header is used.
+ * @author antons
+ */
+public class CountingHttpServletRequest extends jakarta.servlet.http.HttpServletRequestWrapper {
+    private final LongAdder counter = new LongAdder();
+    private CountingServletInputStream is = null;
+    private BufferedReader reader = null;
+
+    public CountingHttpServletRequest(HttpServletRequest request) { super(request); }
+
+    public static CountingHttpServletRequest instance(HttpServletRequest request) { return new CountingHttpServletRequest(request); }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if(is == null) is = CountingServletInputStream.instance(super.getInputStream(), counter);
+        return is;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if(reader == null) {
+            String encoding = getCharacterEncoding();
+            Charset charset = (encoding == null) ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+            reader = new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+        return reader;
+    }
+
+    /**
+     * Number of bytes read from input stream or content length if nothing 
+     * was read through this wrapper.
+     * @return byte count (-1 if it is not known)
+     */
+    public long count() { 
+        long rv = counter.sum();
+        return (rv > 0) ? rv : getContentLengthLong();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Lightweight response wrapper which only counts written content in bytes.
+ * Characters written to writer are counted as bytes of response charset 
+ * (without encoding for UTF-8 and single byte charsets). Content is not 
+ * stored.
+ * @author antons
+ */
+public class CountingHttpServletResponse extends jakarta.servlet.http.HttpServletResponseWrapper {
+    private final LongAdder counter = new LongAdder();
+    private CountingServletOutputStream os = null;
+    private PrintWriter writer = null;
+
+    public CountingHttpServletResponse(HttpServletResponse response) { super(response); }
+
+    public static CountingHttpServletResponse instance(HttpServletResponse response) { return new CountingHttpServletResponse(response); }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if(os == null) os = CountingServletOutputStream.instance(super.getOutputStream(), counter);
+        return os;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if(writer == null) {
+            PrintWriter target = super.getWriter();
+            String encoding = getCharacterEncoding();
+            Charset charset = (encoding == null) ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+            writer = new PrintWriter(new CountingWriter(target, charset, counter));
+        }
+        return writer;
+    }
+
+    /**
+     * Number of bytes written to response.
+     * @return content size
+     */
+    public long count() { return counter.sum(); }
+
+    private static class CountingWriter extends Writer {
+        private final Writer writer;
+        private final Charset charset;
+        private final boolean utf8;
+        private final boolean singleByte;
+        private final LongAdder counter;
+
+        private CountingWriter(Writer writer, Charset charset, LongAdder counter) {
+            this.writer = writer;
+            this.charset = charset;
+            this.utf8 = StandardCharsets.UTF_8.equals(charset);
+            this.singleByte = StandardCharsets.ISO_8859_1.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            writer.write(cbuf, off, len);
+            counter.add(bytes(cbuf, off, len));
+        }
+
+        private long bytes(char[] cbuf, int off, int len) {
+            if(singleByte) return len;
+            if(!utf8) return charset.encode(CharBuffer.wrap(cbuf, off, len)).remaining();
+            long rv = 0;
+            for(int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if(c < 0x80) rv++;
+                else if(c < 0x800) rv += 2;
+                // surrogate pair is 4 bytes
+                else if(Character.isSurrogate(c)) rv += 2;
+                else rv += 3;
+            }
+            return rv;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+/**
+ * ServletInputStream which counts read bytes.
+ * @author antons
+ */
+public class CountingServletInputStream extends ServletInputStream {
+    private final ServletInputStream is;
+    private final LongAdder counter;
+
+    public CountingServletInputStream(ServletInputStream is, LongAdder counter) { 
+        this.is = is; 
+        this.counter = counter;
+    }
+
+    public static CountingServletInputStream instance(ServletInputStream is, LongAdder counter) { return new CountingServletInputStream(is, counter); }
+
+    @Override
+    public int read() throws IOException {
+        int rv = is.read();
+        if(rv >= 0) counter.increment();
+        return rv;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int rv = is.read(b, off, len);
+        if(rv > 0) counter.add(rv);
+        return rv;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return is.isFinished();
+    }
+
+    @Override
+    public boolean isReady() {
+        return is.isReady();
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        is.setReadListener(readListener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        is.close();
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Anton Straka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sk.antons.web.filter.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * ServletOutputStream which counts written bytes.
+ * @author antons
+ */
+public class CountingServletOutputStream extends ServletOutputStream {
+    private final ServletOutputStream os;
+    private final LongAdder counter;
+
+    public CountingServletOutputStream(ServletOutputStream os, LongAdder counter) { 
+        this.os = os; 
+        this.counter = counter;
+    }
+
+    public static CountingServletOutputStream instance(ServletOutputStream os, LongAdder counter) { return new CountingServletOutputStream(os, counter); }
+
+    @Override
+    public void write(int b) throws IOException {
+        os.write(b);
+        counter.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        os.write(b, off, len);
+        counter.add(len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        os.close();
+    }
+
+    @Override
+    public boolean isReady() {
+        return os.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        os.setWriteListener(writeListener);
+    }
+
+}
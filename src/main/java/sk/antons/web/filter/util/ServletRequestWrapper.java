@@ -40,6 +40,12 @@ public class ServletRequestWrapper implements ServletRequest {
 
     public ServletRequestWrapper(ServletRequest request) { this.request = request; }
 
+    /**
+     * Wrapped request.
+     * @return request
+     */
+    public ServletRequest getRequest() { return request; }
+
     @Override
     public Object getAttribute(String string) {
         return request.getAttribute(string);